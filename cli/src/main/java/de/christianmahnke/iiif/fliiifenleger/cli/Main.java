@@ -19,10 +19,14 @@
 package de.christianmahnke.iiif.fliiifenleger.cli;
 
 import ch.qos.logback.classic.Level;
+import de.christianmahnke.iiif.fliiifenleger.BuildManifest;
 import de.christianmahnke.iiif.fliiifenleger.ImageInfo;
+import de.christianmahnke.iiif.fliiifenleger.MemoryBudget;
+import de.christianmahnke.iiif.fliiifenleger.TileScheduler;
 import de.christianmahnke.iiif.fliiifenleger.Tiler;
 import de.christianmahnke.iiif.fliiifenleger.TilerException;
 import de.christianmahnke.iiif.fliiifenleger.debug.IiifImageReassembler;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
 import de.christianmahnke.iiif.fliiifenleger.sink.TileSink;
 import de.christianmahnke.iiif.fliiifenleger.source.ImageSource;
 import org.slf4j.Logger;
@@ -34,13 +38,18 @@ import picocli.CommandLine.Parameters;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.net.URL;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 
 @Command(name = "fliiifenleger",
@@ -101,6 +110,38 @@ public class Main implements Runnable {
         @Option(names = "--iiif-version", description = "Set the IIIF version. Options are V2, V3_0.", defaultValue = "V2")
         private ImageInfo.IIIFVersion version;
 
+        @Option(names = "--pyramid", description = "Derive each scale level from the previous one instead of cropping the full resolution image for every tile.")
+        private boolean pyramid;
+
+        @Option(names = "--dirty-regions", description = "Only generate tiles whose source region changed since the last run into the output directory, based on the region hashes stored there.")
+        private boolean dirtyRegions;
+
+        @Option(names = "--low-res-scaling", paramLabel = "<tier>",
+                description = "The scaling tier for tiles and sizes at or above the scale factor of --low-res-scale: 'fast', 'progressive', 'quality' or 'area'. Defaults to the tier of the source for all levels.")
+        private String lowResScaling;
+
+        @Option(names = "--low-res-scale", description = "The scale factor from which on --low-res-scaling is used.", defaultValue = "8")
+        private double lowResScale;
+
+        @Option(names = "--resume", description = "Skip tiles that a previous, interrupted run has completely written according to the journal of the image.")
+        private boolean resume;
+
+        @Option(names = "--verify-checksums", description = "When resuming, also compare the checksums of completed tiles, not only their sizes.")
+        private boolean verifyChecksums;
+
+        @Option(names = "--incremental", arity = "0..1", fallbackValue = "mtime", paramLabel = "<mode>",
+                description = "Skip images whose source and parameters haven't changed since the last run, changed images are built in a staging directory that replaces the output afterwards. Sources are compared by 'mtime' (size and modification time) or 'hash' (SHA-256).")
+        private BuildManifest.Mode incremental;
+
+        @Option(names = "--threads", description = "The number of threads generating tiles, shared by all files. Set to 0 to use all available processors.", defaultValue = "0")
+        private int threads;
+
+        @Option(names = "--io-threads", description = "The number of files processed concurrently. Set to 0 to use the value of --threads.", defaultValue = "0")
+        private int ioThreads;
+
+        @Option(names = "--memory-budget", description = "Memory available for decoded images (e.g., 512m, 4g). Files are only decoded while their estimated size fits. Defaults to 60% of the maximum heap or the cgroup limit.")
+        private String memoryBudget;
+
         @Parameters(index = "0..*", description = "Input image files to process.")
         private List<File> files;
 
@@ -113,71 +154,169 @@ public class Main implements Runnable {
                 return 1;
             }
 
-            // Process files in parallel
-            files.parallelStream().forEach(file -> {
-                try {
-                    String sourceName;
-                    if (source != null && !source.isEmpty()) {
-                        sourceName = source;
-                    } else {
-                        String fileName = file.getName();
-                        int dotIndex = fileName.lastIndexOf('.');
-                        String extension = (dotIndex == -1) ? "" : fileName.substring(dotIndex + 1);
-                        switch (extension.toLowerCase()) {
-                            case "jxl":
-                                sourceName = "jxl";
-                                break;
-                            default:
-                                sourceName = "default";
-                                break;
-                        }
-                    }
+            BuildManifest.Mode incrementalMode = incremental;
+            if (incremental != null) {
+                if (files.size() > 1) {
+                    // All files are written to the output directory, replacing it would drop the other images
+                    log.error("Error: --incremental requires a single input file per output directory.");
+                    return 1;
+                }
+                if (resume || dirtyRegions) {
+                    // Changed images are built into an empty staging directory, there is nothing to resume or compare with
+                    log.error("Error: --incremental can't be combined with --resume or --dirty-regions.");
+                    return 1;
+                }
+            }
 
-                    ImageSource sourceTemplate = Tiler.SOURCE_REGISTRY.get(sourceName);
-                    if (sourceTemplate == null) {
-                        throw new TilerException("Unknown image source: '" + sourceName + "'");
-                    }
+            int cpuThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            TileScheduler scheduler = new TileScheduler(cpuThreads, ioThreads > 0 ? ioThreads : cpuThreads);
+            TileScheduler.setDefault(scheduler);
+            log.info("Using {} threads for tiles, processing up to {} files concurrently.", scheduler.getThreads(), scheduler.getIoThreads());
 
-                    // Create a new instance for each file
-                    ImageSource imageSource = sourceTemplate.getClass().getConstructor().newInstance();
+            MemoryBudget memoryBudget = (this.memoryBudget != null && !this.memoryBudget.isEmpty()) ? new MemoryBudget(MemoryBudget.parseSize(this.memoryBudget)) : new MemoryBudget();
+            log.info("Using a memory budget of {} MB for decoded images.", memoryBudget.getCapacity() >> 20);
+
+            // Files are processed concurrently, their tiles share the workers of the scheduler
+            List<Future<?>> futures = new ArrayList<>();
+            for (File file : files) {
+                BuildManifest.Mode mode = incrementalMode;
+                futures.add(scheduler.getIoPool().submit(() -> process(file, scheduler, memoryBudget, mode)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            return 0; // Success
+        }
 
-                    // Set the URL to trigger image loading
-                    imageSource.load(file.toURI().toURL());
+        /**
+         * @return The parameters that determine the generated tiles, stored in the manifest of incremental builds.
+         */
+        private Map<String, String> buildParameters() {
+            Map<String, String> parameters = new HashMap<>();
+            parameters.put("identifier", identifier);
+            parameters.put("zoomLevels", String.valueOf(zoomLevels));
+            parameters.put("tileSize", String.valueOf(tileSize));
+            parameters.put("iiifVersion", version.name());
+            parameters.put("pyramid", String.valueOf(pyramid));
+            if (lowResScaling != null) {
+                parameters.put("lowResScaling", lowResScaling + "@" + lowResScale);
+            }
+            parameters.put("source", String.valueOf(source));
+            parameters.put("sink", sink);
+            if (sourceOptions != null) {
+                sourceOptions.forEach((key, value) -> parameters.put("source." + key, value));
+            }
+            if (sinkOptions != null) {
+                sinkOptions.forEach((key, value) -> parameters.put("sink." + key, value));
+            }
+            return parameters;
+        }
 
-                    if (sourceOptions != null) {
-                        imageSource.setOptions(sourceOptions);
+        private void process(File file, TileScheduler scheduler, MemoryBudget memoryBudget, BuildManifest.Mode incrementalMode) {
+            Path staging = null;
+            try {
+                BuildManifest manifest = null;
+                Path target = output;
+                if (incrementalMode != null) {
+                    manifest = BuildManifest.create(file.toPath(), buildParameters(), incrementalMode, Main.toolVersion());
+                    if (manifest.equals(BuildManifest.read(output))) {
+                        log.info("{} is unchanged since the last run, skipping it.", file);
+                        return;
                     }
+                    // Changed images are built aside and replace the output once complete
+                    staging = BuildManifest.createStagingDirectory(output);
+                    target = staging;
+                }
 
-                    TileSink sinkTemplate = Tiler.SINK_REGISTRY.get(sink);
-                    if (sinkTemplate == null) {
-                        throw new TilerException("Unknown image sink: '" + sink + "'");
+                String sourceName;
+                if (source != null && !source.isEmpty()) {
+                    sourceName = source;
+                } else {
+                    String fileName = file.getName();
+                    int dotIndex = fileName.lastIndexOf('.');
+                    String extension = (dotIndex == -1) ? "" : fileName.substring(dotIndex + 1);
+                    switch (extension.toLowerCase()) {
+                        case "jxl":
+                            sourceName = "jxl";
+                            break;
+                        default:
+                            sourceName = "default";
+                            break;
                     }
+                }
 
-                    // Create a new instance for each sink operation
-                    TileSink tileSink = sinkTemplate.getClass().getConstructor().newInstance();
+                ImageSource sourceTemplate = Tiler.SOURCE_REGISTRY.get(sourceName);
+                if (sourceTemplate == null) {
+                    throw new TilerException("Unknown image source: '" + sourceName + "'");
+                }
 
-                    if (sinkOptions != null) {
-                        tileSink.setOptions(sinkOptions);
-                    }
+                URL url = file.toURI().toURL();
+                // Create a new instance for each file
+                ImageSource imageSource = sourceTemplate.getClass().getConstructor().newInstance();
+
+                // Set the URL to trigger image loading
+                imageSource.load(url);
+
+                if (sourceOptions != null) {
+                    imageSource.setOptions(sourceOptions);
+                }
+
+                TileSink sinkTemplate = Tiler.SINK_REGISTRY.get(sink);
+                if (sinkTemplate == null) {
+                    throw new TilerException("Unknown image sink: '" + sink + "'");
+                }
+
+                // Create a new instance for each sink operation
+                TileSink tileSink = sinkTemplate.getClass().getConstructor().newInstance();
+
+                if (sinkOptions != null) {
+                    tileSink.setOptions(sinkOptions);
+                }
+
+                Tiler tiler = new Tiler();
+                tiler.setScheduler(scheduler);
+                tiler.setPyramid(pyramid);
+                tiler.setResume(resume);
+                tiler.setDirtyRegions(dirtyRegions);
+                tiler.setVerifyChecksums(verifyChecksums);
+                if (lowResScaling != null) {
+                    tiler.setLowResolutionScaling(ScalingTier.parse(lowResScaling));
+                    tiler.setLowResolutionScale(lowResScale);
+                }
 
-                    Tiler tiler = new Tiler();
+                long estimate = imageSource.estimateDecodedSize();
+                // Only decode while the estimated size fits into the memory budget
+                MemoryBudget.Permit permit = memoryBudget.acquire(estimate);
+                try {
+                    log.debug("Admitted {} with an estimated decoded size of {} bytes", file, estimate);
                     tiler.createImages(
                             imageSource,
                             List.of(file.toPath()),
-                            output,
+                            target,
                             identifier,
                             zoomLevels,
                             tileSink
                     );
-                } catch (Exception e) {
-                    // In a real parallel stream, you'd want a better way to collect errors.
-                    // For this example, we just print it.
-                    log.error("Failed to process file {}: {}", file.getPath(), e.getMessage(), e);
-                    // To make the process fail, you could use a shared error collection or rethrow a runtime exception.
+                } finally {
+                    permit.close();
                 }
-            });
-
-            return 0; // Success
+                if (manifest != null) {
+                    manifest.write(staging);
+                    BuildManifest.replace(staging, output);
+                    staging = null;
+                }
+            } catch (Exception e) {
+                if (staging != null) {
+                    try {
+                        BuildManifest.delete(staging);
+                    } catch (IOException ex) {
+                        log.warn("Could not delete staging directory {}: {}", staging, ex.getMessage());
+                    }
+                }
+                // Errors are logged per file, so the remaining files are still processed.
+                log.error("Failed to process file {}: {}", file.getPath(), e.getMessage(), e);
+            }
         }
     }
 
@@ -252,22 +391,33 @@ public class Main implements Runnable {
 
     static class VersionProvider implements CommandLine.IVersionProvider {
         public String[] getVersion() {
-            try (InputStream input = Main.class.getClassLoader().getResourceAsStream("version.properties")) {
+            return new String[]{"fliiifenleger " + toolVersion()};
+        }
+    }
+
+    /**
+     * @return The version of the tool from {@code version.properties}, or from the jar manifest if that's missing.
+     */
+    static String toolVersion() {
+        try (InputStream input = Main.class.getClassLoader().getResourceAsStream("version.properties")) {
+            if (input != null) {
                 Properties prop = new Properties();
-                if (input == null) {
-                    log.error("Sorry, unable to find version.properties");
-                    return new String[]{"fliiifenleger: unknown version"};
-                }
                 prop.load(input);
-                return new String[]{"fliiifenleger " + prop.getProperty("version")};
-            } catch (Exception ex) {
-                return new String[]{"fliiifenleger: error reading version"};
+                String version = prop.getProperty("version");
+                if (version != null && !version.startsWith("${")) {
+                    return version;
+                }
             }
+        } catch (IOException e) {
+            log.debug("Could not read version.properties: {}", e.getMessage());
         }
+        String version = Main.class.getPackage().getImplementationVersion();
+        return version != null ? version : "unknown";
     }
 
     public static void main(String[] args) {
-        int exitCode = new CommandLine(new Main()).execute(args);
+        // Modes like --incremental=hash are given in lower case
+        int exitCode = new CommandLine(new Main()).setCaseInsensitiveEnumValuesAllowed(true).execute(args);
         System.exit(exitCode);
     }
 }
\ No newline at end of file
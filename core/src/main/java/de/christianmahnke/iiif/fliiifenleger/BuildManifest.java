@@ -0,0 +1,229 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Describes what an image directory was generated from: the source file, identified by its size and
+ * modification time or by its SHA-256 hash, the parameters of the run and the version of the tool.
+ * If the manifest of a new run equals the one stored in the image directory, the image is unchanged
+ * and doesn't need to be generated again.
+ *
+ * @param source The file name of the source.
+ * @param size The size of the source file.
+ * @param modified The modification time of the source file in milliseconds, {@code 0} if it's identified by its hash.
+ * @param sha256 The SHA-256 hash of the source file, {@code null} if it's identified by its modification time.
+ * @param parameters The parameters of the run, like tile size and IIIF version.
+ * @param version The version of the tool.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BuildManifest(String source, long size, long modified, String sha256, Map<String, String> parameters, String version) {
+    private static final Logger log = LoggerFactory.getLogger(BuildManifest.class);
+
+    /**
+     * The name of the manifest file in the image directory.
+     */
+    public static final String FILE_NAME = ".fliiifenleger-manifest.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * How a source file is compared to the one an image was generated from.
+     */
+    public enum Mode {
+        /**
+         * Compare size and modification time.
+         */
+        MTIME,
+        /**
+         * Compare size and SHA-256 hash, reads the whole file.
+         */
+        HASH
+    }
+
+    public BuildManifest {
+        parameters = parameters != null ? new TreeMap<>(parameters) : Map.of();
+    }
+
+    /**
+     * Creates the manifest of a source file.
+     *
+     * @param source The source file.
+     * @param parameters The parameters of the run.
+     * @param mode How the source file is identified.
+     * @param version The version of the tool.
+     * @return The manifest.
+     * @throws IOException if the source file can't be read.
+     */
+    public static BuildManifest create(Path source, Map<String, String> parameters, Mode mode, String version) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        if (mode == Mode.HASH) {
+            return new BuildManifest(source.getFileName().toString(), attributes.size(), 0, sha256(source), parameters, version);
+        }
+        return new BuildManifest(source.getFileName().toString(), attributes.size(), attributes.lastModifiedTime().toMillis(), null, parameters, version);
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream is = new DigestInputStream(Files.newInputStream(file), digest)) {
+                is.transferTo(OutputStream.nullOutputStream());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 isn't available", e);
+        }
+    }
+
+    /**
+     * Reads the manifest of an image directory.
+     *
+     * @param imageDir The image directory.
+     * @return The manifest or {@code null} if there is none or it can't be read.
+     */
+    public static BuildManifest read(Path imageDir) {
+        Path file = imageDir.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(file.toFile(), BuildManifest.class);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable manifest {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes this manifest into an image directory.
+     *
+     * @param imageDir The image directory.
+     * @throws IOException if the manifest can't be written.
+     */
+    public void write(Path imageDir) throws IOException {
+        MAPPER.writeValue(imageDir.resolve(FILE_NAME).toFile(), this);
+    }
+
+    /**
+     * Creates an empty staging directory next to an image directory, to generate the image into
+     * before it replaces the directory with {@link #replace(Path, Path)}.
+     *
+     * @param imageDir The image directory.
+     * @return The staging directory.
+     * @throws IOException if the directory can't be created.
+     */
+    public static Path createStagingDirectory(Path imageDir) throws IOException {
+        Path target = imageDir.toAbsolutePath().normalize();
+        Files.createDirectories(target.getParent());
+        return Files.createTempDirectory(target.getParent(), target.getFileName() + ".staging-");
+    }
+
+    /**
+     * Replaces an image directory with a completely generated staging directory. The old directory
+     * is renamed out of the way first, so readers see either the old or the new image, and deleted
+     * afterwards. Only empty directories and image directories generated by this tool, containing a
+     * manifest or an {@code info.json}, are replaced.
+     *
+     * @param staging The staging directory.
+     * @param imageDir The image directory to replace.
+     * @throws IOException if the directories can't be moved or the image directory wasn't generated by this tool.
+     */
+    public static void replace(Path staging, Path imageDir) throws IOException {
+        Path target = imageDir.toAbsolutePath().normalize();
+        Path old = null;
+        if (Files.exists(target)) {
+            if (!isReplaceable(target)) {
+                throw new IOException("Refusing to replace " + target + ", it isn't an image directory generated by this tool");
+            }
+            old = target.resolveSibling(target.getFileName() + ".old-" + System.currentTimeMillis());
+            move(target, old);
+        }
+        try {
+            move(staging, target);
+        } catch (IOException e) {
+            if (old != null) {
+                move(old, target);
+            }
+            throw e;
+        }
+        log.debug("Replaced {} with {}", target, staging);
+        if (old != null) {
+            delete(old);
+        }
+    }
+
+    private static boolean isReplaceable(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        if (Files.exists(dir.resolve(FILE_NAME)) || Files.exists(dir.resolve("info.json"))) {
+            return true;
+        }
+        try (Stream<Path> entries = Files.list(dir)) {
+            return entries.findAny().isEmpty();
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.debug("Atomic move of {} isn't supported, moving it non-atomically: {}", source, e.getMessage());
+            Files.move(source, target);
+        }
+    }
+
+    /**
+     * Deletes a directory with all its contents.
+     *
+     * @param dir The directory.
+     * @throws IOException if a file can't be deleted.
+     */
+    public static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
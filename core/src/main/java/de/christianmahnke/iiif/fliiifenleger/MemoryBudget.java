@@ -0,0 +1,172 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Admission control for decoded images. Images are only admitted while the sum of their estimated
+ * decoded sizes stays within the budget, others wait until enough memory has been released.
+ * An image larger than the whole budget is admitted once nothing else is running.
+ */
+public class MemoryBudget {
+    private static final Logger log = LoggerFactory.getLogger(MemoryBudget.class);
+
+    /**
+     * The fraction of the available memory used by default, the rest is left for tiles and encoders.
+     */
+    public static final double DEFAULT_FRACTION = 0.6;
+
+    private static final List<Path> CGROUP_LIMITS = List.of(
+            Path.of("/sys/fs/cgroup/memory.max"),
+            Path.of("/sys/fs/cgroup/memory/memory.limit_in_bytes"));
+
+    /**
+     * The number of bytes that may be admitted at the same time.
+     */
+    @Getter
+    private final long capacity;
+    private long used = 0;
+
+    /**
+     * Creates a budget of {@link #DEFAULT_FRACTION} of the available memory.
+     */
+    public MemoryBudget() {
+        this(defaultCapacity());
+    }
+
+    /**
+     * @param capacity The number of bytes that may be admitted at the same time.
+     */
+    public MemoryBudget(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive, got " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Blocks until the given amount of memory fits into the budget.
+     *
+     * @param bytes The estimated number of bytes.
+     * @return A permit that releases the memory when closed.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public Permit acquire(long bytes) throws InterruptedException {
+        long requested = Math.max(0, bytes);
+        synchronized (this) {
+            if (used > 0 && used + requested > capacity) {
+                log.debug("Waiting for {} bytes, {} of {} bytes in use", requested, used, capacity);
+            }
+            while (used > 0 && used + requested > capacity) {
+                wait();
+            }
+            used += requested;
+        }
+        return new Permit(requested);
+    }
+
+    /**
+     * @return The number of bytes currently admitted.
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    private synchronized void release(long bytes) {
+        used -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * @return {@link #DEFAULT_FRACTION} of the maximum heap or the cgroup memory limit, whichever is lower.
+     */
+    public static long defaultCapacity() {
+        long available = Runtime.getRuntime().maxMemory();
+        for (Path limitFile : CGROUP_LIMITS) {
+            try {
+                if (Files.isReadable(limitFile)) {
+                    String limit = Files.readString(limitFile).trim();
+                    if (!limit.equals("max")) {
+                        available = Math.min(available, Long.parseLong(limit));
+                    }
+                    break;
+                }
+            } catch (IOException | NumberFormatException e) {
+                log.debug("Could not read cgroup memory limit from {}: {}", limitFile, e.getMessage());
+            }
+        }
+        return (long) (available * DEFAULT_FRACTION);
+    }
+
+    /**
+     * Parses a size like {@code 512m} or {@code 4g}, a plain number is taken as bytes.
+     *
+     * @param size The size with an optional {@code k}, {@code m} or {@code g} suffix.
+     * @return The size in bytes.
+     */
+    public static long parseSize(String size) {
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        long factor = 1;
+        if (value.endsWith("b")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+            case 'k' -> factor = 1L << 10;
+            case 'm' -> factor = 1L << 20;
+            case 'g' -> factor = 1L << 30;
+            default -> factor = 1;
+        }
+        if (factor > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            return (long) (Double.parseDouble(value) * factor);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + size, e);
+        }
+    }
+
+    /**
+     * Memory admitted by the budget, closing it releases the memory.
+     */
+    public final class Permit implements AutoCloseable {
+        private long bytes;
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (bytes > 0) {
+                release(bytes);
+                bytes = 0;
+            }
+        }
+    }
+}
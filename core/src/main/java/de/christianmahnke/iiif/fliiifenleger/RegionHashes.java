@@ -0,0 +1,166 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger;
+
+import de.christianmahnke.iiif.fliiifenleger.sink.TileSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Hashes of the source regions of the full resolution tiles of an image, stored in the image directory
+ * to find the tiles that changed when the source is edited. The file starts with a fingerprint of the
+ * plan and the sink, covering the IIIF version, the format, all scale factors and sizes, hashes written
+ * for a different fingerprint are never compared, since the outputs of the current run may not exist.
+ */
+class RegionHashes {
+    private static final Logger log = LoggerFactory.getLogger(RegionHashes.class);
+
+    /**
+     * The name of the hash file in the image directory.
+     */
+    static final String FILE_NAME = ".fliiifenleger-regions";
+
+    private static final int MAGIC = 0x46524832;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long[] hashes;
+
+    private RegionHashes(long[] hashes) {
+        this.hashes = hashes;
+    }
+
+    /**
+     * Creates empty hashes for the full resolution tiles of a plan.
+     */
+    RegionHashes(TilePlan plan) {
+        this(new long[plan.getColumns(0) * plan.getRows(0)]);
+    }
+
+    long get(int tile) {
+        return hashes[tile];
+    }
+
+    void set(int tile, long hash) {
+        hashes[tile] = hash;
+    }
+
+    /**
+     * Computes the hash of the pixels of a tile.
+     *
+     * @param tile The tile, cropped from the source at full resolution.
+     * @return A 64 bit FNV-1a hash of the ARGB pixels.
+     */
+    static long hash(BufferedImage tile) {
+        int width = tile.getWidth();
+        int[] row = new int[width];
+        long hash = FNV_OFFSET;
+        for (int y = 0; y < tile.getHeight(); y++) {
+            tile.getRGB(0, y, width, 1, row, 0, width);
+            for (int pixel : row) {
+                hash = (hash ^ pixel) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Reads the hashes of an image directory.
+     *
+     * @param imageDir The image directory.
+     * @param plan The plan of the current run.
+     * @param sink The sink of the current run.
+     * @return The hashes or {@code null} if there are none or they were computed for a different plan or sink.
+     */
+    static RegionHashes read(Path imageDir, TilePlan plan, TileSink sink) {
+        Path file = imageDir.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                log.warn("Ignoring invalid region hashes {}", file);
+                return null;
+            }
+            if (in.readLong() != fingerprint(plan, sink)) {
+                log.info("Tile plan or format changed since the region hashes in {} were written, generating all tiles", file);
+                return null;
+            }
+            long[] hashes = new long[plan.getColumns(0) * plan.getRows(0)];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = in.readLong();
+            }
+            return new RegionHashes(hashes);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable region hashes {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the hashes into an image directory.
+     *
+     * @param imageDir The image directory.
+     * @param plan The plan the hashes were computed for.
+     * @param sink The sink the tiles were written with.
+     * @throws IOException if the file can't be written.
+     */
+    void write(Path imageDir, TilePlan plan, TileSink sink) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(imageDir.resolve(FILE_NAME))))) {
+            out.writeInt(MAGIC);
+            out.writeLong(fingerprint(plan, sink));
+            for (long hash : hashes) {
+                out.writeLong(hash);
+            }
+        }
+    }
+
+    /**
+     * @return A 64 bit FNV-1a hash of the sink, the IIIF version and the paths of all outputs of the plan,
+     * which contain the regions, sizes and the extension.
+     */
+    private static long fingerprint(TilePlan plan, TileSink sink) {
+        long hash = FNV_OFFSET;
+        hash = update(hash, sink.getName());
+        hash = update(hash, sink.getFormatExtension());
+        hash = update(hash, plan.getVersion().name());
+        hash = update(hash, plan.getWidth() + "x" + plan.getHeight());
+        for (String path : plan.getPaths(sink.getFormatExtension())) {
+            hash = update(hash, path);
+        }
+        return hash;
+    }
+
+    private static long update(long hash, String value) {
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        // Separates the values, so different splits of the same characters don't collide
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+}
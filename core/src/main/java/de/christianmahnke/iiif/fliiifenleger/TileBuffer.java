@@ -0,0 +1,203 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger;
+
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * A growable in-memory buffer tiles are encoded into before they are written.
+ * <p>
+ * Buffers are pooled, a tile takes one with {@link #acquire()} and hands it back with {@link #release()}
+ * once it is written, so the hot loop doesn't allocate and grow a new array per tile. Only a bounded
+ * number of buffers up to a bounded capacity is kept, larger ones, like the full size, are left to the GC.
+ * <p>
+ * Sinks encoding with ImageIO can write into the buffer directly using {@link #imageOutputStream()}.
+ */
+public final class TileBuffer extends OutputStream {
+    static final int INITIAL_CAPACITY = 64 * 1024;
+    static final int MAX_POOLED_CAPACITY = 4 * 1024 * 1024;
+    private static final BlockingQueue<TileBuffer> POOL = new ArrayBlockingQueue<>(64);
+
+    private byte[] buffer;
+    private int count;
+
+    TileBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    TileBuffer(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * @return An empty buffer, taken from the pool if possible.
+     */
+    static TileBuffer acquire() {
+        TileBuffer pooled = POOL.poll();
+        return pooled != null ? pooled : new TileBuffer();
+    }
+
+    /**
+     * Returns this buffer to the pool, it must not be used afterwards.
+     */
+    void release() {
+        if (buffer.length <= MAX_POOLED_CAPACITY) {
+            count = 0;
+            POOL.offer(this);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length << 1));
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * Creates a seekable ImageIO view of this buffer, starting at the current end of the written bytes.
+     * Bytes written to the view go straight into this buffer, closing it leaves the buffer untouched.
+     *
+     * @return A stream writing into this buffer.
+     */
+    public ImageOutputStream imageOutputStream() {
+        return new BufferImageOutputStream(count);
+    }
+
+    /**
+     * @return The number of bytes written.
+     */
+    int size() {
+        return count;
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return A view of the written bytes, sharing the content of this buffer.
+     */
+    ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, count);
+    }
+
+    /**
+     * @return The CRC32 checksum of the written bytes.
+     */
+    long checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(buffer, 0, count);
+        return crc.getValue();
+    }
+
+    /**
+     * An {@link ImageOutputStream} on the array of the buffer, positions are relative to the start offset.
+     */
+    private final class BufferImageOutputStream extends ImageOutputStreamImpl {
+        private final int start;
+
+        BufferImageOutputStream(int start) {
+            this.start = start;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            int position = start + Math.toIntExact(streamPos);
+            ensureCapacity(position + 1);
+            buffer[position] = (byte) b;
+            count = Math.max(count, position + 1);
+            streamPos++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            if (off < 0 || len < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            int position = start + Math.toIntExact(streamPos);
+            ensureCapacity(position + len);
+            System.arraycopy(b, off, buffer, position, len);
+            count = Math.max(count, position + len);
+            streamPos += len;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            int position = start + Math.toIntExact(streamPos);
+            if (position >= count) {
+                return -1;
+            }
+            streamPos++;
+            return buffer[position] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            if (off < 0 || len < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            bitOffset = 0;
+            if (len == 0) {
+                return 0;
+            }
+            int position = start + Math.toIntExact(streamPos);
+            int available = Math.min(len, count - position);
+            if (available <= 0) {
+                return -1;
+            }
+            System.arraycopy(buffer, position, b, off, available);
+            streamPos += available;
+            return available;
+        }
+
+        @Override
+        public long length() {
+            return count - start;
+        }
+    }
+}
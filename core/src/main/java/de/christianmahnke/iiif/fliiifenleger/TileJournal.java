@@ -0,0 +1,221 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A journal of the tiles of an image that have been written completely, with their size and CRC32
+ * checksum. Entries are appended once a tile file has been closed, so a tile that was only partially
+ * written before a crash has no entry or a different size. When resuming, tiles with a matching entry
+ * are skipped. The journal is only kept while resuming is enabled and is deleted once the image is
+ * complete, that is once its {@code info.json} has been written.
+ * <p>
+ * The journal is a text file with one line per tile: size, checksum (hex) and the path relative to
+ * the image directory, separated by tabs. Lines are flushed in batches, tiles whose lines are lost
+ * by a crash are generated again.
+ */
+class TileJournal implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(TileJournal.class);
+
+    /**
+     * The name of the journal file in the image directory.
+     */
+    static final String FILE_NAME = ".fliiifenleger-journal";
+    /**
+     * The number of lines written before the journal is flushed.
+     */
+    private static final int FLUSH_LINES = 256;
+
+    private final Path imageDir;
+    private final boolean verifyChecksums;
+    private final boolean journaled;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Writer writer;
+    private int pending = 0;
+
+    private TileJournal(Path imageDir, boolean verifyChecksums, boolean journaled, Writer writer) {
+        this.imageDir = imageDir;
+        this.verifyChecksums = verifyChecksums;
+        this.journaled = journaled;
+        this.writer = writer;
+    }
+
+    /**
+     * Opens the journal of an image directory.
+     *
+     * @param imageDir The image directory.
+     * @param resume If set, the existing journal is read, otherwise it's discarded and no journal is written.
+     * @param verifyChecksums If set, files are also compared by their checksum instead of only by their size.
+     * @return The journal.
+     * @throws IOException if the journal can't be read or created.
+     */
+    static TileJournal open(Path imageDir, boolean resume, boolean verifyChecksums) throws IOException {
+        Files.createDirectories(imageDir);
+        Path file = imageDir.resolve(FILE_NAME);
+        if (!resume) {
+            Files.deleteIfExists(file);
+            return new TileJournal(imageDir, verifyChecksums, false, null);
+        }
+        Map<String, Entry> existing = Map.of();
+        boolean journaled = Files.exists(file);
+        if (journaled) {
+            existing = read(file);
+            log.info("Resuming with {} completed tiles from {}", existing.size(), file);
+        }
+        Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        TileJournal journal = new TileJournal(imageDir, verifyChecksums, journaled, writer);
+        journal.entries.putAll(existing);
+        return journal;
+    }
+
+    private static Map<String, Entry> read(Path file) throws IOException {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                // The last line may be truncated by a crash
+                if (fields.length != 3) {
+                    continue;
+                }
+                try {
+                    entries.put(fields[2], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1], 16)));
+                } catch (NumberFormatException e) {
+                    log.debug("Ignoring invalid journal line: {}", line);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Checks whether a tile has been written completely by a previous run.
+     *
+     * @param path The path of the tile, relative to the image directory.
+     * @return {@code true} if the journal has an entry for the tile and the file matches it.
+     */
+    boolean isComplete(String path) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return false;
+        }
+        Path file = imageDir.resolve(path);
+        try {
+            if (Files.size(file) != entry.size()) {
+                log.debug("Size of {} doesn't match the journal, generating it again", file);
+                return false;
+            }
+            if (verifyChecksums && checksum(file) != entry.checksum()) {
+                log.debug("Checksum of {} doesn't match the journal, generating it again", file);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether all outputs of an image have been written completely. If a journal was found, every
+     * file has to match its entry, otherwise the image was completed by a previous run and its journal has
+     * been deleted, then every file has to exist.
+     *
+     * @param paths The paths of the outputs, relative to the image directory.
+     * @return {@code true} if all outputs are complete.
+     */
+    boolean isComplete(Iterable<String> paths) {
+        for (String path : paths) {
+            if (journaled ? !isComplete(path) : !Files.isRegularFile(imageDir.resolve(path))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records a tile that has been written completely.
+     *
+     * @param path The path of the tile, relative to the image directory.
+     * @param size The size of the file.
+     * @param checksum The CRC32 checksum of the file.
+     * @throws IOException if the journal can't be written.
+     */
+    void record(String path, long size, long checksum) throws IOException {
+        if (writer == null) {
+            return;
+        }
+        entries.put(path, new Entry(size, checksum));
+        String line = size + "\t" + Long.toHexString(checksum) + "\t" + path + "\n";
+        synchronized (writer) {
+            writer.write(line);
+            if (++pending >= FLUSH_LINES) {
+                writer.flush();
+                pending = 0;
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the journal, called once the image is complete.
+     *
+     * @throws IOException if the journal can't be deleted.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(imageDir.resolve(FILE_NAME));
+    }
+
+    private static long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream is = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+
+    private record Entry(long size, long checksum) {
+    }
+}
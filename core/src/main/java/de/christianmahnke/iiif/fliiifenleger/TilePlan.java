@@ -0,0 +1,325 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All outputs of an image, computed up front from its {@link ImageInfo}. Tiles are stored in primitive
+ * arrays, ordered by scale factor, row and column, their paths are derived on demand. The plan also
+ * creates all output directories in one pass, so writing a tile doesn't need any file system metadata
+ * operations.
+ */
+public class TilePlan {
+    private static final Logger log = LoggerFactory.getLogger(TilePlan.class);
+
+    @Getter
+    private final int width;
+    @Getter
+    private final int height;
+    @Getter
+    private final ImageInfo.IIIFVersion version;
+
+    private final int[] scales;
+    private final int[] columns;
+    private final int[] levelStart;
+    private final int[] rowsPerLevel;
+
+    private final int[] tileScale;
+    private final int[] tileX;
+    private final int[] tileY;
+    private final int[] tileWidth;
+    private final int[] tileHeight;
+
+    private final int[] sizeWidth;
+    private final int[] sizeHeight;
+
+    /**
+     * Computes the plan for an image.
+     *
+     * @param imageInfo The image and its tiling parameters.
+     * @param version The IIIF version, which determines the paths.
+     */
+    public TilePlan(ImageInfo imageInfo, ImageInfo.IIIFVersion version) {
+        this(imageInfo.getImage().getWidth(), imageInfo.getImage().getHeight(), imageInfo.getTileWidth(),
+                imageInfo.getTileHeight(), imageInfo.getScaleFactors(), imageInfo.getSizes(), version);
+    }
+
+    /**
+     * Computes the plan for the given dimensions, for example of an image described by an existing {@code info.json}.
+     */
+    public TilePlan(int width, int height, int tileWidth, int tileHeight, List<Integer> scaleFactors, List<ImageInfo.Size> sizes, ImageInfo.IIIFVersion version) {
+        this.width = width;
+        this.height = height;
+        this.version = version;
+
+        int levels = scaleFactors.size();
+        this.scales = new int[levels];
+        this.columns = new int[levels];
+        this.rowsPerLevel = new int[levels];
+        this.levelStart = new int[levels + 1];
+        int count = 0;
+        for (int level = 0; level < levels; level++) {
+            int scale = scaleFactors.get(level);
+            scales[level] = scale;
+            columns[level] = (int) Math.ceil((double) width / scale / tileWidth);
+            rowsPerLevel[level] = (int) Math.ceil((double) height / scale / tileHeight);
+            levelStart[level] = count;
+            count += columns[level] * rowsPerLevel[level];
+        }
+        levelStart[levels] = count;
+
+        this.tileScale = new int[count];
+        this.tileX = new int[count];
+        this.tileY = new int[count];
+        this.tileWidth = new int[count];
+        this.tileHeight = new int[count];
+        int i = 0;
+        for (int level = 0; level < levels; level++) {
+            int scale = scales[level];
+            for (int row = 0; row < rowsPerLevel[level]; row++) {
+                int y = row * tileHeight * scale;
+                int h = Math.min(tileHeight * scale, height - y);
+                for (int column = 0; column < columns[level]; column++) {
+                    int x = column * tileWidth * scale;
+                    tileScale[i] = scale;
+                    tileX[i] = x;
+                    tileY[i] = y;
+                    this.tileWidth[i] = Math.min(tileWidth * scale, width - x);
+                    this.tileHeight[i] = h;
+                    i++;
+                }
+            }
+        }
+
+        this.sizeWidth = new int[sizes.size()];
+        this.sizeHeight = new int[sizes.size()];
+        for (int s = 0; s < sizes.size(); s++) {
+            sizeWidth[s] = sizes.get(s).width();
+            sizeHeight[s] = sizes.get(s).height();
+        }
+    }
+
+    /**
+     * @return The number of scale levels.
+     */
+    public int getLevelCount() {
+        return scales.length;
+    }
+
+    public int getScale(int level) {
+        return scales[level];
+    }
+
+    /**
+     * @return The number of tile columns of a level.
+     */
+    public int getColumns(int level) {
+        return columns[level];
+    }
+
+    /**
+     * @return The number of tile rows of a level.
+     */
+    public int getRows(int level) {
+        return rowsPerLevel[level];
+    }
+
+    /**
+     * @return The index of the tile in the given level, row and column.
+     */
+    public int getTileIndex(int level, int row, int column) {
+        return levelStart[level] + row * columns[level] + column;
+    }
+
+    public int getTileCount() {
+        return tileX.length;
+    }
+
+    public int getTileScale(int tile) {
+        return tileScale[tile];
+    }
+
+    /**
+     * @return The left edge of the tile region in the full resolution image.
+     */
+    public int getTileX(int tile) {
+        return tileX[tile];
+    }
+
+    /**
+     * @return The top edge of the tile region in the full resolution image.
+     */
+    public int getTileY(int tile) {
+        return tileY[tile];
+    }
+
+    /**
+     * @return The width of the tile region in the full resolution image.
+     */
+    public int getTileWidth(int tile) {
+        return tileWidth[tile];
+    }
+
+    /**
+     * @return The height of the tile region in the full resolution image.
+     */
+    public int getTileHeight(int tile) {
+        return tileHeight[tile];
+    }
+
+    /**
+     * @return The width of the encoded tile.
+     */
+    public int getOutputWidth(int tile) {
+        return (int) Math.ceil((double) tileWidth[tile] / tileScale[tile]);
+    }
+
+    /**
+     * @return The height of the encoded tile.
+     */
+    public int getOutputHeight(int tile) {
+        return (int) Math.ceil((double) tileHeight[tile] / tileScale[tile]);
+    }
+
+    /**
+     * @param tile The index of the tile.
+     * @param extension The file extension of the sink.
+     * @return The path of the tile, relative to the image directory.
+     */
+    public String getTilePath(int tile, String extension) {
+        return getTileDirectory(tile) + "/default." + extension;
+    }
+
+    private String getTileDirectory(int tile) {
+        return getRegionName(tile) + "/" + getTileSizeName(tile) + "/0";
+    }
+
+    private String getRegionName(int tile) {
+        return tileX[tile] + "," + tileY[tile] + "," + tileWidth[tile] + "," + tileHeight[tile];
+    }
+
+    private String getTileSizeName(int tile) {
+        return (version == ImageInfo.IIIFVersion.V3) ? getOutputWidth(tile) + "," + getOutputHeight(tile) : String.valueOf(getOutputWidth(tile));
+    }
+
+    public int getSizeCount() {
+        return sizeWidth.length;
+    }
+
+    public int getSizeWidth(int size) {
+        return sizeWidth[size];
+    }
+
+    public int getSizeHeight(int size) {
+        return sizeHeight[size];
+    }
+
+    /**
+     * @return Whether the size has the dimensions of the full image and is also written as {@code full/full} or {@code full/max}.
+     */
+    public boolean isFullSize(int size) {
+        return sizeWidth[size] == width && sizeHeight[size] == height;
+    }
+
+    /**
+     * @param size The index of the size.
+     * @param extension The file extension of the sink.
+     * @return The path of the size, relative to the image directory.
+     */
+    public String getSizePath(int size, String extension) {
+        return "full/" + getSizeName(size) + "/0/default." + extension;
+    }
+
+    private String getSizeName(int size) {
+        return (version == ImageInfo.IIIFVersion.V3) ? sizeWidth[size] + "," + sizeHeight[size] : sizeWidth[size] + ",";
+    }
+
+    /**
+     * @param extension The file extension of the sink.
+     * @return The path of the full image, relative to the image directory.
+     */
+    public String getFullPath(String extension) {
+        return "full/" + getFullName() + "/0/default." + extension;
+    }
+
+    private String getFullName() {
+        return (version == ImageInfo.IIIFVersion.V3) ? "max" : "full";
+    }
+
+    /**
+     * @param extension The file extension of the sink.
+     * @return The paths of all tiles and sizes, relative to the image directory.
+     */
+    public List<String> getPaths(String extension) {
+        List<String> paths = new ArrayList<>(tileX.length + sizeWidth.length + 1);
+        for (int tile = 0; tile < tileX.length; tile++) {
+            paths.add(getTilePath(tile, extension));
+        }
+        for (int size = 0; size < sizeWidth.length; size++) {
+            paths.add(getSizePath(size, extension));
+            if (isFullSize(size)) {
+                paths.add(getFullPath(extension));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Creates the directories of all tiles and sizes. Every directory is created with a single call,
+     * since the parents of a directory are always created before it.
+     *
+     * @param imageDir The image directory.
+     * @throws IOException if a directory can't be created.
+     */
+    public void createDirectories(Path imageDir) throws IOException {
+        Files.createDirectories(imageDir);
+        Path full = createDirectory(imageDir.resolve("full"));
+        for (int size = 0; size < sizeWidth.length; size++) {
+            createDirectory(createDirectory(full.resolve(getSizeName(size))).resolve("0"));
+            if (isFullSize(size)) {
+                createDirectory(createDirectory(full.resolve(getFullName())).resolve("0"));
+            }
+        }
+        for (int tile = 0; tile < tileX.length; tile++) {
+            Path region = createDirectory(imageDir.resolve(getRegionName(tile)));
+            createDirectory(createDirectory(region.resolve(getTileSizeName(tile))).resolve("0"));
+        }
+        log.debug("Created directories for {} tiles and {} sizes in {}", tileX.length, sizeWidth.length, imageDir);
+    }
+
+    private static Path createDirectory(Path dir) throws IOException {
+        try {
+            Files.createDirectory(dir);
+        } catch (FileAlreadyExistsException e) {
+            if (!Files.isDirectory(dir)) {
+                throw e;
+            }
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger;
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tile sized destination images, reused by the tiles scaled on one thread.
+ * <p>
+ * A tile is encoded on the thread that scaled it, so once it is encoded its image can take the next
+ * tile of the same size. The type of the images is learned from the results of the source. Tiles of a
+ * level mostly have the tile size of the image, only the last column and row differ, so a few images
+ * per thread are enough.
+ */
+final class TileRasters {
+    private static final int MAX_IMAGES = 8;
+    private static final ThreadLocal<TileRasters> LOCAL = ThreadLocal.withInitial(TileRasters::new);
+
+    private int type = BufferedImage.TYPE_CUSTOM;
+    private final Map<Key, BufferedImage> images = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, BufferedImage> eldest) {
+            return size() > MAX_IMAGES;
+        }
+    };
+
+    private TileRasters() {
+    }
+
+    /**
+     * @return The images of the current thread.
+     */
+    static TileRasters get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * @return An image of the given size and the type of the last result, {@code null} if no result was seen yet.
+     */
+    BufferedImage destination(int width, int height) {
+        if (type == BufferedImage.TYPE_CUSTOM) {
+            return null;
+        }
+        return images.computeIfAbsent(new Key(width, height, type), key -> new BufferedImage(key.width(), key.height(), key.type()));
+    }
+
+    /**
+     * Remembers the type of a result, the next destinations are created with it.
+     */
+    void update(BufferedImage result) {
+        type = result.getType();
+    }
+
+    private record Key(int width, int height, int type) {
+    }
+}
@@ -0,0 +1,312 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A process wide scheduler all images submit their tile work into.
+ * <p>
+ * Tile work runs on a single pool with a fixed number of CPU workers. Idle workers pull the next
+ * task from the concurrently processed images in turn, so every image makes progress and no image
+ * can flood the pool with its tiles. Image level work (loading sources, waiting for tiles,
+ * writing {@code info.json}) runs on a separate pool that bounds how many images are in flight.
+ * Encoded tiles are written on virtual threads, the number of pending writes is bounded so that
+ * encoding can't run away from slow storage.
+ */
+public class TileScheduler implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(TileScheduler.class);
+
+    private static TileScheduler defaultScheduler;
+    /**
+     * The scheduler of the current I/O thread.
+     */
+    private static final ThreadLocal<TileScheduler> CURRENT = new ThreadLocal<>();
+
+    /**
+     * The number of CPU workers for tile work.
+     */
+    @Getter
+    private final int threads;
+    /**
+     * The number of images processed concurrently.
+     */
+    @Getter
+    private final int ioThreads;
+    /**
+     * The maximum number of encoded tiles waiting to be written.
+     */
+    @Getter
+    private final int pendingWrites;
+    private final ForkJoinPool cpuPool;
+    private final ExecutorService ioPool;
+    private final ExecutorService writePool;
+    private final Semaphore writePermits;
+
+    private final Deque<Queue<Dispatch>> queues = new ArrayDeque<>();
+    private int running = 0;
+    private int pending = 0;
+
+    /**
+     * Creates a scheduler using all available processors.
+     */
+    public TileScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads The number of CPU workers, also used as the number of concurrently processed images.
+     */
+    public TileScheduler(int threads) {
+        this(threads, threads);
+    }
+
+    /**
+     * @param threads The number of CPU workers for tile work.
+     * @param ioThreads The number of images processed concurrently.
+     */
+    public TileScheduler(int threads, int ioThreads) {
+        this(threads, ioThreads, threads * 4);
+    }
+
+    /**
+     * @param threads The number of CPU workers for tile work.
+     * @param ioThreads The number of images processed concurrently.
+     * @param pendingWrites The maximum number of encoded tiles waiting to be written.
+     */
+    public TileScheduler(int threads, int ioThreads, int pendingWrites) {
+        if (threads < 1 || ioThreads < 1) {
+            throw new IllegalArgumentException("Thread counts must be positive, got " + threads + " and " + ioThreads);
+        }
+        if (pendingWrites < 1) {
+            throw new IllegalArgumentException("Pending writes must be positive, got " + pendingWrites);
+        }
+        this.threads = threads;
+        this.ioThreads = ioThreads;
+        this.pendingWrites = pendingWrites;
+        this.cpuPool = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("fliiifenleger-cpu-" + worker.getPoolIndex());
+            return worker;
+        }, null, false);
+        this.ioPool = Executors.newFixedThreadPool(ioThreads, new NamedThreadFactory("fliiifenleger-io-", this));
+        this.writePool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("fliiifenleger-write-", 0).factory());
+        this.writePermits = new Semaphore(pendingWrites);
+        log.debug("Created scheduler with {} CPU and {} I/O threads, {} pending writes", threads, ioThreads, pendingWrites);
+    }
+
+    /**
+     * @return The scheduler shared by all {@link Tiler} instances that don't have one set explicitly.
+     */
+    public static synchronized TileScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new TileScheduler();
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * @return The number of CPU workers of the shared scheduler, without creating it if there is none yet.
+     */
+    public static synchronized int getDefaultThreads() {
+        return defaultScheduler != null ? defaultScheduler.getThreads() : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Replaces the shared scheduler, the previous one is shut down after its work is done.
+     *
+     * @param scheduler The new default scheduler.
+     */
+    public static synchronized void setDefault(TileScheduler scheduler) {
+        if (defaultScheduler != null && defaultScheduler != scheduler) {
+            defaultScheduler.close();
+        }
+        defaultScheduler = scheduler;
+    }
+
+    /**
+     * @return The pool for image level work.
+     */
+    public ExecutorService getIoPool() {
+        return ioPool;
+    }
+
+    /**
+     * @return A write stage for the tiles of one image, sharing the bound of pending writes with all other images.
+     */
+    TileWriter createWriter() {
+        return new TileWriter(writePool, writePermits);
+    }
+
+    /**
+     * Submits the tile work of one image. The tasks are started in the given order, interleaved with
+     * the tasks of other images.
+     *
+     * @param tasks The tasks, usually most expensive first.
+     * @return A future per task, in the order of the tasks.
+     */
+    public List<Future<?>> submit(List<Runnable> tasks) {
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        Queue<Dispatch> queue = new ArrayDeque<>(tasks.size());
+        for (Runnable task : tasks) {
+            Dispatch dispatch = new Dispatch(task, new CompletableFuture<>());
+            queue.add(dispatch);
+            futures.add(dispatch.future());
+        }
+        if (!queue.isEmpty()) {
+            synchronized (this) {
+                queues.addLast(queue);
+                pending += queue.size();
+            }
+            dispatch();
+        }
+        return futures;
+    }
+
+    /**
+     * Runs the parts of a single piece of work, like the bands of an image, in parallel and waits for them.
+     * The parts never run on threads beyond the pool of the caller: on a worker of a fork join pool they are
+     * forked into that pool, on an I/O thread of a scheduler they are submitted as tile work of that
+     * scheduler, on any other thread they are run one after another.
+     *
+     * @param parts The parts of the work.
+     */
+    public static void invokeAll(List<Runnable> parts) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(parts.stream().map(ForkJoinTask::adapt).toList());
+            return;
+        }
+        TileScheduler scheduler = CURRENT.get();
+        if (scheduler == null) {
+            parts.forEach(Runnable::run);
+            return;
+        }
+        for (Future<?> future : scheduler.submit(parts)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof Error cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for parallel work", e);
+            }
+        }
+    }
+
+    /**
+     * Starts a runner for every idle worker with a pending task. Runners pull the next task when they are
+     * done with the previous one, taking one task per image in turn, so the tasks of a single image run on
+     * all workers.
+     */
+    private void dispatch() {
+        int runners;
+        synchronized (this) {
+            runners = Math.min(threads - running, pending);
+            running += runners;
+        }
+        for (int i = 0; i < runners; i++) {
+            cpuPool.execute(this::run);
+        }
+    }
+
+    private void run() {
+        Dispatch dispatch;
+        while ((dispatch = next()) != null) {
+            try {
+                dispatch.task().run();
+                dispatch.future().complete(null);
+            } catch (Throwable t) {
+                dispatch.future().completeExceptionally(t);
+            }
+        }
+    }
+
+    private synchronized Dispatch next() {
+        Queue<Dispatch> queue = queues.pollFirst();
+        if (queue == null) {
+            running--;
+            return null;
+        }
+        Dispatch dispatch = queue.poll();
+        pending--;
+        if (!queue.isEmpty()) {
+            queues.addLast(queue);
+        }
+        return dispatch;
+    }
+
+    /**
+     * Shuts down all pools, already submitted work is finished.
+     */
+    @Override
+    public void close() {
+        ioPool.shutdown();
+        cpuPool.shutdown();
+        writePool.shutdown();
+    }
+
+    private record Dispatch(Runnable task, CompletableFuture<Void> future) {
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final TileScheduler scheduler;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(String prefix, TileScheduler scheduler) {
+            this.prefix = prefix;
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                CURRENT.set(scheduler);
+                runnable.run();
+            }, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
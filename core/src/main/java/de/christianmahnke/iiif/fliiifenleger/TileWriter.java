@@ -0,0 +1,129 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The write stage for the tiles of one image. Tiles are encoded into memory by the CPU workers and
+ * written on the write pool of the {@link TileScheduler}, so slow storage doesn't stall encoding.
+ * The number of pending writes is bounded by the scheduler, a CPU worker blocks if the bound is
+ * reached until writes have caught up.
+ */
+class TileWriter {
+    private static final Logger log = LoggerFactory.getLogger(TileWriter.class);
+
+    private final ExecutorService pool;
+    private final Semaphore pending;
+    private final List<CompletableFuture<Void>> writes = new ArrayList<>();
+
+    TileWriter(ExecutorService pool, Semaphore pending) {
+        this.pool = pool;
+        this.pending = pending;
+    }
+
+    /**
+     * Queues a write action, like writing a tile and linking a duplicate to it.
+     *
+     * @param target The file written by the action, used in error messages.
+     * @param action The action.
+     * @throws InterruptedException if interrupted while waiting for pending writes.
+     */
+    void submit(Path target, WriteAction action) throws InterruptedException {
+        pending.acquire();
+        CompletableFuture<Void> write;
+        try {
+            write = CompletableFuture.runAsync(() -> {
+                try {
+                    action.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to write tile " + target, e);
+                } finally {
+                    pending.release();
+                }
+            }, pool);
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            throw e;
+        }
+        synchronized (writes) {
+            writes.add(write);
+        }
+    }
+
+    /**
+     * Waits until all queued writes are done.
+     *
+     * @throws TilerException if a write failed.
+     */
+    void await() throws TilerException {
+        List<CompletableFuture<Void>> queued;
+        synchronized (writes) {
+            queued = new ArrayList<>(writes);
+            writes.clear();
+        }
+        log.debug("Waiting for {} pending writes", queued.size());
+        try {
+            CompletableFuture.allOf(queued.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw new TilerException(io.getMessage(), io.getCause());
+            }
+            throw new TilerException("Failed to write tiles", e);
+        }
+    }
+
+    /**
+     * Writes encoded bytes to a file with a single channel write.
+     *
+     * @return The CRC32 checksum of the written bytes.
+     */
+    static long writeFile(Path target, TileBuffer encoded) throws IOException {
+        log.debug("Writing tile to {}", target);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = encoded.toByteBuffer();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        return encoded.checksum();
+    }
+
+    /**
+     * An action of the write stage.
+     */
+    @FunctionalInterface
+    interface WriteAction {
+        void run() throws IOException;
+    }
+}
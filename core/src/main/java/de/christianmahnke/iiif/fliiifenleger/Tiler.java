@@ -20,19 +20,29 @@ package de.christianmahnke.iiif.fliiifenleger;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
 import de.christianmahnke.iiif.fliiifenleger.sink.TileSink;
 import de.christianmahnke.iiif.fliiifenleger.source.ImageSource;
+import lombok.Getter;
+import lombok.Setter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.OutputStream;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
-import java.util.concurrent.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 public class Tiler {
 
@@ -46,6 +56,49 @@ public class Tiler {
 
     private final int defaultTileSize;
     private final ImageInfo.IIIFVersion defaultIiifVersion;
+    /**
+     * If set, scale levels are derived from each other by 2x reduction instead of being cropped from the full resolution source.
+     */
+    @Getter
+    @Setter
+    private boolean pyramid = false;
+    /**
+     * The scheduler tile work is submitted to, if not set the process wide default is used.
+     */
+    @Setter
+    private TileScheduler scheduler;
+    /**
+     * If set, tiles completed by a previous run according to the journal of the image are skipped.
+     */
+    @Getter
+    @Setter
+    private boolean resume = false;
+    /**
+     * If set, resuming also compares the checksums of completed tiles, not only their sizes.
+     */
+    @Getter
+    @Setter
+    private boolean verifyChecksums = false;
+    /**
+     * If set, only tiles whose source region changed since the last run are generated, based on region
+     * hashes stored in the image directory.
+     */
+    @Getter
+    @Setter
+    private boolean dirtyRegions = false;
+    /**
+     * The scaling tier for tiles and sizes with a scale factor of at least {@link #lowResolutionScale}, if not set
+     * the tier configured for the source is used for all of them.
+     */
+    @Getter
+    @Setter
+    private ScalingTier lowResolutionScaling;
+    /**
+     * The scale factor from which on {@link #lowResolutionScaling} is used.
+     */
+    @Getter
+    @Setter
+    private double lowResolutionScale = 8;
 
     protected static Map<String, ImageSource> loadSources() {
         Map<String, ImageSource> sources = new ConcurrentHashMap<>();
@@ -122,111 +175,532 @@ public class Tiler {
             TileSink sink
     ) throws Exception {
         log.info("Generating IIIF Image API {} metadata and tiles.", version.getExactVersion());
-        generateTiles(imageInfo, outputDir, version, sink);
-
+        TilePlan plan = new TilePlan(imageInfo, version);
         Path outputImageDir = outputDir;
-
         Path infoJsonPath = outputImageDir.resolve("info.json");
 
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
-        log.debug("Writing info.json to {}", infoJsonPath);
-        mapper.writeValue(infoJsonPath.toFile(), imageInfo.toJson());
+        try (TileJournal journal = TileJournal.open(outputImageDir, resume, verifyChecksums)) {
+            if (resume && Files.exists(infoJsonPath) && journal.isComplete(plan.getPaths(sink.getFormatExtension()))) {
+                log.info("All tiles in {} are complete, skipping the image.", outputImageDir);
+                journal.delete();
+                return outputImageDir;
+            }
+            // The info.json marks the image as complete, it's written once all tiles are
+            Files.deleteIfExists(infoJsonPath);
+            try {
+                generateTiles(imageInfo, plan, outputImageDir, sink, journal);
+            } finally {
+                // Decoded image data and encoders are only needed while tiles are generated
+                imageInfo.getImage().release();
+                sink.release();
+            }
+
+            ObjectMapper mapper = new ObjectMapper();
+            mapper.enable(SerializationFeature.INDENT_OUTPUT);
+            log.debug("Writing info.json to {}", infoJsonPath);
+            mapper.writeValue(infoJsonPath.toFile(), imageInfo.toJson());
+            journal.delete();
+        }
         return outputImageDir;
     }
 
-    private void generateTiles(ImageInfo imageInfo, Path outputDir, ImageInfo.IIIFVersion version, TileSink sink) throws Exception {
+    private void generateTiles(ImageInfo imageInfo, TilePlan plan, Path outputDir, TileSink sink, TileJournal journal) throws Exception {
         //Path imageBaseDir = sink.getBasePath(outputDir, imageInfo);
         Path imageBaseDir = outputDir;
         System.out.println("Generating tiles in: " + imageBaseDir);
-        
-        // Use a fixed thread pool to control parallelism
-        int coreCount = Runtime.getRuntime().availableProcessors();
-        ExecutorService executor = Executors.newFixedThreadPool(coreCount);
-        log.info("Using a thread pool with {} workers for tile generation.", coreCount);
-        
+
+        // Tasks are tile rows, they share the workers of the scheduler with all other images
+        TileScheduler executor = getScheduler();
+        log.info("Using a scheduler with {} workers for tile generation.", executor.getThreads());
+
+        plan.createDirectories(imageBaseDir);
+        // Tiles are encoded by the tasks and written on a separate stage
+        ImageOutput output = new ImageOutput(imageInfo, plan, imageBaseDir, sink, executor.createWriter(), journal);
+
         try {
-            List<Future<?>> futures = new java.util.ArrayList<>();
-            generateSizes(imageInfo, imageBaseDir, version, sink, executor, futures);
-            generateScaleTiles(imageInfo, imageBaseDir, version, sink, executor, futures);
-            
-            // Wait for all tasks to complete
-            for (Future<?> future : futures) {
-                future.get(); // This will rethrow exceptions from tasks
+            if (dirtyRegions) {
+                if (pyramid) {
+                    throw new TilerException("Dirty region re-tiling isn't supported in pyramid mode");
+                }
+                log.info("Generating only tiles with changed source regions.");
+                generateChangedTiles(output, executor);
+            } else if (pyramid) {
+                log.info("Building a cascading pyramid, each level is derived from the previous one.");
+                generatePyramid(output, executor);
+            } else {
+                List<TileTask> tasks = new ArrayList<>();
+                generateSizes(output, tasks);
+                generateScaleTiles(output, tasks, null);
+
+                // Wait for all tasks to complete
+                waitFor(submit(tasks, executor));
             }
-        } finally {
-            executor.shutdown();
+        } catch (Exception e) {
+            // Let pending writes finish before the journal is closed
+            try {
+                output.writer().await();
+            } catch (TilerException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
         }
+        output.writer().await();
     }
 
-    private void generateSizes(ImageInfo imageInfo, Path imageDir, ImageInfo.IIIFVersion version, TileSink sink, ExecutorService executor, List<Future<?>> futures) {
-        for (ImageInfo.Size size : imageInfo.getSizes()) {
-            futures.add(executor.submit(() -> {
+    /**
+     * @return The scheduler tile work is submitted to.
+     */
+    public TileScheduler getScheduler() {
+        return scheduler != null ? scheduler : TileScheduler.getDefault();
+    }
+
+    private void generateSizes(ImageOutput output, List<TileTask> tasks) {
+        TilePlan plan = output.plan();
+        ImageSource source = output.imageInfo().getImage();
+        long sourcePixels = (long) plan.getWidth() * plan.getHeight();
+        for (int size = 0; size < plan.getSizeCount(); size++) {
+            if (output.isSizeComplete(size)) {
+                continue;
+            }
+            int sizeIndex = size;
+            tasks.add(new TileTask(sourcePixels, () -> {
                 try {
-                    BufferedImage scaledImage = imageInfo.getImage().crop(0, 0, imageInfo.getImage().getWidth(), imageInfo.getImage().getHeight(), (double) imageInfo.getImage().getWidth() / size.width());
+                    double scale = (double) plan.getWidth() / plan.getSizeWidth(sizeIndex);
+                    BufferedImage scaledImage = source.crop(0, 0, plan.getWidth(), plan.getHeight(), scale, scalingFor(scale), null);
+                    writeSize(output, sizeIndex, scaledImage);
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to generate size " + plan.getSizeWidth(sizeIndex) + "x" + plan.getSizeHeight(sizeIndex), e);
+                }
+            }));
+        }
+    }
 
-                    String sizeStr = (version == ImageInfo.IIIFVersion.V3) ? String.format("%d,%d", size.width(), size.height()) : String.format("%d,", size.width());
+    /**
+     * @return The scaling tier for the given scale factor, {@code null} for the one configured for the source.
+     */
+    private ScalingTier scalingFor(double scale) {
+        return lowResolutionScaling != null && scale >= lowResolutionScale ? lowResolutionScaling : null;
+    }
+
+    /**
+     * @param selected The indices of the tiles to generate, {@code null} for all tiles.
+     */
+    private void generateScaleTiles(ImageOutput output, List<TileTask> tasks, BitSet selected) {
+        TilePlan plan = output.plan();
+        ImageSource source = output.imageInfo().getImage();
+        for (int level = 0; level < plan.getLevelCount(); level++) {
+            int scale = plan.getScale(level);
+            int columns = plan.getColumns(level);
+            for (int row = 0; row < plan.getRows(level); row++) {
+                int first = plan.getTileIndex(level, row, 0);
+                BitSet pending = new BitSet(columns);
+                for (int column = 0; column < columns; column++) {
+                    pending.set(column, (selected == null || selected.get(first + column)) && !output.isTileComplete(first + column));
+                }
+                if (pending.isEmpty()) {
+                    continue;
+                }
 
-                    Path outputPath = imageDir.resolve(String.format("full/%s/0/default.%s", sizeStr, sink.getFormatExtension()));
-                    Files.createDirectories(outputPath.getParent());
-                    log.debug("Writing tile to {}", outputPath);
-                    try (OutputStream os = Files.newOutputStream(outputPath)) {
-                        sink.saveTile(os, scaledImage, imageInfo.getImage().getMetadata());
+                ScalingTier scaling = scalingFor(scale);
+                // Every row resamples a full width band of the source, its cost grows with the scale factor
+                tasks.add(new TileTask((long) plan.getWidth() * plan.getTileHeight(first), () -> {
+                    try {
+                        TileRasters rasters = TileRasters.get();
+                        for (int column = pending.nextSetBit(0); column >= 0; column = pending.nextSetBit(column + 1)) {
+                            int tile = first + column;
+                            // Encoded before the next crop, so the destination can be reused right away
+                            BufferedImage destination = scale != 1 ? rasters.destination(plan.getOutputWidth(tile), plan.getOutputHeight(tile)) : null;
+                            BufferedImage tileImg = source.crop(plan.getTileX(tile), plan.getTileY(tile), plan.getTileWidth(tile), plan.getTileHeight(tile), scale, scaling, destination);
+                            if (scale != 1) {
+                                rasters.update(tileImg);
+                            }
+                            writeTile(output, tile, tileImg);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException("Failed to generate tiles for scale " + scale + " at y " + plan.getTileY(first), e);
                     }
+                }));
+            }
+        }
+    }
+
+    /**
+     * Generates only the tiles whose source region changed since the last run. All full resolution
+     * tiles are cropped and hashed, the ones with a different hash are written. Tiles of the other scale
+     * factors are generated if they contain a changed full resolution tile, the sizes if any tile changed.
+     */
+    private void generateChangedTiles(ImageOutput output, TileScheduler executor) throws Exception {
+        TilePlan plan = output.plan();
+        requirePowerOfTwoScales(output.imageInfo().getScaleFactors(), "Dirty region re-tiling");
+        if (plan.getLevelCount() == 0) {
+            List<TileTask> tasks = new ArrayList<>();
+            generateSizes(output, tasks);
+            waitFor(submit(tasks, executor));
+            return;
+        }
 
-                    if (size.width() == imageInfo.getImage().getWidth() && size.height() == imageInfo.getImage().getHeight()) {
-                        String fullSizeStr = (version == ImageInfo.IIIFVersion.V3) ? "max" : "full";
-                        Path fullOutputPath = imageDir.resolve(String.format("full/%s/0/default.%s", fullSizeStr, sink.getFormatExtension()));
-                        Files.createDirectories(fullOutputPath.getParent());
-                        log.debug("Writing tile to {}", fullOutputPath);
-                        try (OutputStream os = Files.newOutputStream(fullOutputPath)) {
-                            sink.saveTile(os, scaledImage, imageInfo.getImage().getMetadata());
+        ImageSource source = output.imageInfo().getImage();
+        RegionHashes previous = RegionHashes.read(output.imageDir(), plan, output.sink());
+        RegionHashes current = new RegionHashes(plan);
+        BitSet changed = new BitSet();
+        int columns = plan.getColumns(0);
+
+        List<TileTask> tasks = new ArrayList<>();
+        for (int row = 0; row < plan.getRows(0); row++) {
+            int first = plan.getTileIndex(0, row, 0);
+            tasks.add(new TileTask((long) plan.getWidth() * plan.getTileHeight(first), () -> {
+                try {
+                    for (int tile = first; tile < first + columns; tile++) {
+                        BufferedImage tileImg = source.crop(plan.getTileX(tile), plan.getTileY(tile), plan.getTileWidth(tile), plan.getTileHeight(tile), 1.0);
+                        long hash = RegionHashes.hash(tileImg);
+                        current.set(tile, hash);
+                        if (previous == null || previous.get(tile) != hash) {
+                            synchronized (changed) {
+                                changed.set(tile);
+                            }
+                            writeTile(output, tile, tileImg);
                         }
                     }
                 } catch (Exception e) {
-                    throw new RuntimeException("Failed to generate size " + size, e);
+                    throw new RuntimeException("Failed to generate tiles for scale 1 at y " + plan.getTileY(first), e);
                 }
             }));
         }
+        waitFor(submit(tasks, executor));
+        log.info("{} of {} full resolution tiles changed.", changed.cardinality(), columns * plan.getRows(0));
+
+        if (!changed.isEmpty()) {
+            // The ancestors of full resolution tile (row, column) are the tiles (row >> level, column >> level)
+            BitSet selected = new BitSet(plan.getTileCount());
+            for (int tile = changed.nextSetBit(0); tile >= 0; tile = changed.nextSetBit(tile + 1)) {
+                int row = tile / columns;
+                int column = tile % columns;
+                for (int level = 1; level < plan.getLevelCount(); level++) {
+                    selected.set(plan.getTileIndex(level, row >> level, column >> level));
+                }
+            }
+            tasks = new ArrayList<>();
+            generateSizes(output, tasks);
+            generateScaleTiles(output, tasks, selected);
+            waitFor(submit(tasks, executor));
+        }
+
+        // Hashes are only stored once the tiles they describe are written
+        output.writer().await();
+        current.write(output.imageDir(), plan, output.sink());
     }
 
-    private void generateScaleTiles(ImageInfo imageInfo, Path imageDir, ImageInfo.IIIFVersion version, TileSink sink, ExecutorService executor, List<Future<?>> futures) {
-        for (int scale : imageInfo.getScaleFactors()) {
-            futures.add(executor.submit(() -> {
+    private static void requirePowerOfTwoScales(List<Integer> scaleFactors, String mode) throws TilerException {
+        for (int i = 0; i < scaleFactors.size(); i++) {
+            if (scaleFactors.get(i) != 1 << i) {
+                throw new TilerException(mode + " requires consecutive power of two scale factors, got " + scaleFactors);
+            }
+        }
+    }
+
+    /**
+     * Generates sizes and tiles as a cascading pyramid: level N+1 is produced by a 2x reduction of
+     * level N instead of resampling the full resolution source for every tile. Level 0 is read tile
+     * by tile from the source, each tile is reduced and drawn into the canvas of level 1. From then on
+     * only the current level and the one being built are held in memory.
+     */
+    private void generatePyramid(ImageOutput output, TileScheduler executor) throws Exception {
+        ImageInfo imageInfo = output.imageInfo();
+        TilePlan plan = output.plan();
+        ImageSource source = imageInfo.getImage();
+        int width = plan.getWidth();
+        int height = plan.getHeight();
+        List<Integer> scaleFactors = imageInfo.getScaleFactors();
+        requirePowerOfTwoScales(scaleFactors, "Pyramid mode");
+
+        Map<Integer, List<Integer>> sizesByLevel = new HashMap<>();
+        for (int size = 0; size < plan.getSizeCount(); size++) {
+            sizesByLevel.computeIfAbsent(pyramidLevel(width, height, plan.getSizeWidth(size), plan.getSizeHeight(size)), k -> new ArrayList<>()).add(size);
+        }
+        int levels = Math.max(scaleFactors.size(), sizesByLevel.keySet().stream().mapToInt(l -> l + 1).max().orElse(0));
+
+        BufferedImage current = null;
+        for (int level = 0; level < levels; level++) {
+            int scale = 1 << level;
+            boolean tiled = level < scaleFactors.size();
+            boolean last = level == levels - 1;
+            log.debug("Generating pyramid level {} (scale factor {})", level, scale);
+
+            List<TileTask> tasks = new ArrayList<>();
+            BufferedImage next = null;
+            // Without a previous level, the level is the source itself, unless it's read tile by tile below.
+            // It's cropped once for the sizes, the tiles and the next level.
+            BufferedImage levelImage = current != null || level == 0 && tiled ? current : source.crop(0, 0, width, height, 1.0);
+
+            // Sizes are floor halvings, levels ceil halvings, they may differ by a pixel
+            for (int size : sizesByLevel.getOrDefault(level, List.of())) {
+                if (output.isSizeComplete(size)) {
+                    continue;
+                }
+                int sizeWidth = plan.getSizeWidth(size);
+                int sizeHeight = plan.getSizeHeight(size);
+                tasks.add(new TileTask((long) sizeWidth * sizeHeight, () -> {
+                    try {
+                        BufferedImage sizeImage;
+                        if (levelImage == null) {
+                            sizeImage = source.crop(0, 0, width, height, 1.0);
+                        } else if (levelImage.getWidth() == sizeWidth && levelImage.getHeight() == sizeHeight) {
+                            sizeImage = levelImage;
+                        } else {
+                            sizeImage = resize(levelImage, sizeWidth, sizeHeight);
+                        }
+                        writeSize(output, size, sizeImage);
+                    } catch (Exception e) {
+                        throw new RuntimeException("Failed to generate size " + sizeWidth + "x" + sizeHeight, e);
+                    }
+                }));
+            }
+
+            if (level == 0 && tiled) {
+                // The source itself is never held as a level, tiles are cropped from it and cascade into level 1
+                Graphics2D nextGraphics = null;
+                if (!last) {
+                    BufferedImage sample = source.crop(0, 0, Math.min(width, imageInfo.getTileWidth()), Math.min(height, imageInfo.getTileHeight()), 1.0);
+                    next = new BufferedImage(ceilHalf(width), ceilHalf(height), levelType(sample));
+                    nextGraphics = next.createGraphics();
+                }
+                for (int y = 0; y < plan.getRows(0); y++) {
+                    int first = plan.getTileIndex(0, y, 0);
+                    int columns = plan.getColumns(0);
+                    Graphics2D g2d = nextGraphics;
+                    int levelType = next != null ? next.getType() : 0;
+                    tasks.add(new TileTask((long) width * plan.getTileHeight(first), () -> {
+                        try {
+                            for (int tile = first; tile < first + columns; tile++) {
+                                int tileX = plan.getTileX(tile);
+                                int tileY = plan.getTileY(tile);
+                                // Complete tiles are still needed for the next level
+                                boolean complete = output.isTileComplete(tile);
+                                if (complete && g2d == null) {
+                                    continue;
+                                }
+
+                                BufferedImage tileImg = source.crop(tileX, tileY, plan.getTileWidth(tile), plan.getTileHeight(tile), 1.0);
+                                if (!complete) {
+                                    writeTile(output, tile, tileImg);
+                                }
+                                if (g2d != null) {
+                                    BufferedImage reduced = halve(tileImg, levelType);
+                                    // Drawing must be synchronized
+                                    synchronized (g2d) {
+                                        g2d.drawImage(reduced, tileX / 2, tileY / 2, null);
+                                    }
+                                }
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException("Failed to generate tiles for scale 1 at y " + plan.getTileY(first), e);
+                        }
+                    }));
+                }
                 try {
-                    double scaleLevelWidth = (double) imageInfo.getImage().getWidth() / scale;
-                    double scaleLevelHeight = (double) imageInfo.getImage().getHeight() / scale;
+                    waitFor(submit(tasks, executor));
+                } finally {
+                    if (nextGraphics != null) {
+                        nextGraphics.dispose();
+                    }
+                }
+            } else {
+                if (tiled) {
+                    int columns = plan.getColumns(level);
+                    for (int y = 0; y < plan.getRows(level); y++) {
+                        int first = plan.getTileIndex(level, y, 0);
+                        int levelY = plan.getTileY(first) / scale;
+                        int levelTileHeight = Math.min(imageInfo.getTileHeight(), levelImage.getHeight() - levelY);
+                        tasks.add(new TileTask((long) levelImage.getWidth() * levelTileHeight, () -> {
+                            try {
+                                for (int tile = first; tile < first + columns; tile++) {
+                                    if (output.isTileComplete(tile)) {
+                                        continue;
+                                    }
+                                    int levelX = plan.getTileX(tile) / scale;
+                                    BufferedImage tileImg = levelImage.getSubimage(levelX, levelY,
+                                            Math.min(imageInfo.getTileWidth(), levelImage.getWidth() - levelX), levelTileHeight);
+                                    writeTile(output, tile, tileImg);
+                                }
+                            } catch (Exception e) {
+                                throw new RuntimeException("Failed to generate tiles for scale " + scale + " at y " + levelY * scale, e);
+                            }
+                        }));
+                    }
+                }
+                List<Future<?>> futures = submit(tasks, executor);
+                if (!last) {
+                    next = halve(levelImage, levelType(levelImage));
+                }
+                waitFor(futures);
+            }
+            current = next;
+        }
+    }
 
-                    int tileNumWidth = (int) Math.ceil(scaleLevelWidth / imageInfo.getTileWidth());
-                    int tileNumHeight = (int) Math.ceil(scaleLevelHeight / imageInfo.getTileHeight());
+    private void writeSize(ImageOutput output, int size, BufferedImage scaledImage) throws Exception {
+        String extension = output.sink().getFormatExtension();
+        String path = output.plan().getSizePath(size, extension);
+        Path outputPath = output.imageDir().resolve(path);
+        // Encoded once, the full size is written a second time
+        TileBuffer encoded = encode(output, scaledImage);
+        output.writer().submit(outputPath, () -> {
+            try {
+                long checksum = TileWriter.writeFile(outputPath, encoded);
+                output.journal().record(path, encoded.size(), checksum);
+                if (output.plan().isFullSize(size)) {
+                    String fullPath = output.plan().getFullPath(extension);
+                    writeDuplicate(outputPath, output.imageDir().resolve(fullPath), encoded, output.sink().getDuplicateMode());
+                    output.journal().record(fullPath, encoded.size(), checksum);
+                }
+            } finally {
+                encoded.release();
+            }
+        });
+    }
 
-                    for (int x = 0; x < tileNumWidth; x++) {
-                        for (int y = 0; y < tileNumHeight; y++) {
-                            int tileX = x * imageInfo.getTileWidth() * scale;
-                            int tileY = y * imageInfo.getTileHeight() * scale;
+    /**
+     * Writes already encoded tile bytes to another path, either as a hard link to the existing file or as a copy.
+     */
+    private static void writeDuplicate(Path existing, Path target, TileBuffer encoded, TileSink.DuplicateMode mode) throws IOException {
+        if (mode == TileSink.DuplicateMode.LINK) {
+            log.debug("Linking tile {} to {}", target, existing);
+            try {
+                Files.deleteIfExists(target);
+                Files.createLink(target, existing);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("Could not link {}, copying instead: {}", target, e.getMessage());
+            }
+        }
+        TileWriter.writeFile(target, encoded);
+    }
 
-                            int scaledTileWidth = Math.min(imageInfo.getTileWidth() * scale, imageInfo.getImage().getWidth() - tileX);
-                            int scaledTileHeight = Math.min(imageInfo.getTileHeight() * scale, imageInfo.getImage().getHeight() - tileY);
+    private void writeTile(ImageOutput output, int tile, BufferedImage tileImg) throws Exception {
+        String path = output.plan().getTilePath(tile, output.sink().getFormatExtension());
+        Path outputFile = output.imageDir().resolve(path);
+        TileBuffer encoded = encode(output, tileImg);
+        output.writer().submit(outputFile, () -> {
+            try {
+                output.journal().record(path, encoded.size(), TileWriter.writeFile(outputFile, encoded));
+            } finally {
+                encoded.release();
+            }
+        });
+    }
 
-                            int tiledWidthCalc = (int) Math.ceil((double) scaledTileWidth / scale);
-                            int tiledHeightCalc = (int) Math.ceil((double) scaledTileHeight / scale);
+    /**
+     * Encodes an image into a pooled buffer, the buffer is released by the write stage once it is written.
+     */
+    private static TileBuffer encode(ImageOutput output, BufferedImage image) throws Exception {
+        TileBuffer encoded = TileBuffer.acquire();
+        try {
+            output.sink().saveTile(encoded, image, metadata(output.imageInfo(), output.sink()));
+        } catch (Exception e) {
+            encoded.release();
+            throw e;
+        }
+        return encoded;
+    }
 
-                            String url = (version == ImageInfo.IIIFVersion.V3) ? String.format("%d,%d,%d,%d/%d,%d/0/default.%s", tileX, tileY, scaledTileWidth, scaledTileHeight, tiledWidthCalc, tiledHeightCalc, sink.getFormatExtension()) : String.format("%d,%d,%d,%d/%d/0/default.%s", tileX, tileY, scaledTileWidth, scaledTileHeight, tiledWidthCalc, sink.getFormatExtension());
+    /**
+     * @return The metadata of the source image, empty if the sink doesn't use it.
+     */
+    private static Map<String, Object> metadata(ImageInfo imageInfo, TileSink sink) {
+        return sink.isMetadataRequired() ? imageInfo.getImage().getMetadata() : Map.of();
+    }
 
-                            Path outputFile = imageDir.resolve(url);
-                            Files.createDirectories(outputFile.getParent());
-                            log.debug("Writing tile to {}", outputFile);
+    /**
+     * Submits tasks so that the most expensive ones start first, the cheap ones fill the gaps at the end.
+     */
+    private static List<Future<?>> submit(List<TileTask> tasks, TileScheduler executor) {
+        return executor.submit(tasks.stream()
+                .sorted(Comparator.comparingLong(TileTask::cost).reversed())
+                .map(TileTask::work)
+                .toList());
+    }
 
-                            BufferedImage tileImg = imageInfo.getImage().crop(tileX, tileY, scaledTileWidth, scaledTileHeight, scale);
-                            try (OutputStream os = Files.newOutputStream(outputFile)) {
-                                sink.saveTile(os, tileImg, imageInfo.getImage().getMetadata());
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    throw new RuntimeException("Failed to generate tiles for scale " + scale, e);
-                }
-            }));
+    private static void waitFor(List<Future<?>> futures) throws Exception {
+        for (Future<?> future : futures) {
+            future.get(); // This will rethrow exceptions from tasks
+        }
+    }
+
+    /**
+     * A unit of tile work, usually a row of tiles, with an estimate of the source pixels it needs to process.
+     */
+    private record TileTask(long cost, Runnable work) {
+    }
+
+    /**
+     * Everything needed to write the outputs of one image.
+     */
+    private record ImageOutput(ImageInfo imageInfo, TilePlan plan, Path imageDir, TileSink sink, TileWriter writer, TileJournal journal) {
+        /**
+         * @return Whether the tile has been written completely by a previous run.
+         */
+        boolean isTileComplete(int tile) {
+            return journal.isComplete(plan.getTilePath(tile, sink.getFormatExtension()));
+        }
+
+        /**
+         * @return Whether the size, and {@code full/full} or {@code full/max} for the full size, have been written completely by a previous run.
+         */
+        boolean isSizeComplete(int size) {
+            return journal.isComplete(plan.getSizePath(size, sink.getFormatExtension()))
+                    && (!plan.isFullSize(size) || journal.isComplete(plan.getFullPath(sink.getFormatExtension())));
+        }
+    }
+
+    /**
+     * @return The pyramid level (power of two reduction) a size from {@link ImageInfo#getSizes()} belongs to.
+     */
+    private static int pyramidLevel(int width, int height, int sizeWidth, int sizeHeight) {
+        int level = 0;
+        while (level < 31 && ((width >> level) > sizeWidth || (height >> level) > sizeHeight)) {
+            level++;
+        }
+        return level;
+    }
+
+    private static int ceilHalf(int value) {
+        return (value + 1) / 2;
+    }
+
+    /**
+     * Selects a raster type for pyramid levels that Java2D can draw into without falling back to slow loops.
+     */
+    private static int levelType(BufferedImage sample) {
+        if (sample.getColorModel().hasAlpha()) {
+            return BufferedImage.TYPE_INT_ARGB;
+        }
+        if (sample.getColorModel().getNumComponents() == 1) {
+            return BufferedImage.TYPE_BYTE_GRAY;
+        }
+        return BufferedImage.TYPE_3BYTE_BGR;
+    }
+
+    /**
+     * Reduces an image by a factor of two. Bilinear interpolation at exactly half the size averages
+     * each 2x2 block of source pixels.
+     */
+    static BufferedImage halve(BufferedImage image, int type) {
+        return resize(image, ceilHalf(image.getWidth()), ceilHalf(image.getHeight()), type);
+    }
+
+    private static BufferedImage resize(BufferedImage image, int newWidth, int newHeight) {
+        return resize(image, newWidth, newHeight, levelType(image));
+    }
+
+    private static BufferedImage resize(BufferedImage image, int newWidth, int newHeight, int type) {
+        BufferedImage scaled = new BufferedImage(newWidth, newHeight, type);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, newWidth, newHeight, null);
+        } finally {
+            g.dispose();
         }
+        return scaled;
     }
 }
@@ -0,0 +1,55 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.resample;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales images in a single {@code Graphics2D.drawImage} step. Fast, but only the source pixels next to
+ * the sample positions are used, large reductions alias.
+ */
+public class Java2dResampler implements Resampler {
+    private final Object interpolation;
+
+    /**
+     * @param interpolation A value of {@link RenderingHints#KEY_INTERPOLATION}.
+     */
+    public Java2dResampler(Object interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage image, int width, int height, BufferedImage destination) {
+        int type = image.getType() != BufferedImage.TYPE_CUSTOM ? image.getType() : image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage scaled = Resampler.fits(destination, width, height, type) ? destination : new BufferedImage(width, height, type);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            // Replace the content of a reused destination, including alpha
+            g.setComposite(AlphaComposite.Src);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.resample;
+
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales images down in repeated bilinear 2x steps until the target is less than a factor of two away,
+ * the last step scales to the exact size. Each 2x step averages all source pixels, so the result is far
+ * less aliased than a single step, for a fraction of the cost of a high order kernel.
+ */
+public class ProgressiveResampler implements Resampler {
+    private final Java2dResampler bilinear = new Java2dResampler(RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+    @Override
+    public BufferedImage resize(BufferedImage image, int width, int height, BufferedImage destination) {
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+            current = bilinear.resize(current, (current.getWidth() + 1) / 2, (current.getHeight() + 1) / 2);
+        }
+        if (current.getWidth() == width && current.getHeight() == height && current != image) {
+            return current;
+        }
+        return bilinear.resize(current, width, height, destination);
+    }
+}
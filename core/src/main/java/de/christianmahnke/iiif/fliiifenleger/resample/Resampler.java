@@ -0,0 +1,54 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.resample;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales images to a target size.
+ */
+public interface Resampler {
+
+    /**
+     * @param image The image to scale.
+     * @param width The width of the result.
+     * @param height The height of the result.
+     * @return The scaled image.
+     */
+    default BufferedImage resize(BufferedImage image, int width, int height) {
+        return resize(image, width, height, null);
+    }
+
+    /**
+     * @param image The image to scale.
+     * @param width The width of the result.
+     * @param height The height of the result.
+     * @param destination An image the result is written into if it has the size and type of the result,
+     *                    {@code null} to always allocate a new image.
+     * @return The scaled image, either the destination or a new image.
+     */
+    BufferedImage resize(BufferedImage image, int width, int height, BufferedImage destination);
+
+    /**
+     * @return Whether the destination can take a result of the given size and type.
+     */
+    static boolean fits(BufferedImage destination, int width, int height, int type) {
+        return destination != null && destination.getWidth() == width && destination.getHeight() == height && destination.getType() == type;
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.resample;
+
+/**
+ * The kernels of {@link SeparableResampler}.
+ */
+public enum ResamplingFilter {
+    /**
+     * Windowed sinc with three lobes, sharp results for downscaling.
+     */
+    LANCZOS3(3.0) {
+        @Override
+        double weight(double x) {
+            if (x == 0) {
+                return 1;
+            }
+            if (x <= -3 || x >= 3) {
+                return 0;
+            }
+            double px = Math.PI * x;
+            return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+        }
+    },
+    /**
+     * Catmull-Rom cubic, comparable to the bicubic interpolation of Java2D.
+     */
+    BICUBIC(2.0) {
+        @Override
+        double weight(double x) {
+            x = Math.abs(x);
+            if (x < 1) {
+                return (1.5 * x - 2.5) * x * x + 1;
+            }
+            if (x < 2) {
+                return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+            }
+            return 0;
+        }
+    },
+    /**
+     * Averages the source pixels covered by a target pixel, weighted by the covered area.
+     */
+    AREA(0.5) {
+        @Override
+        double weight(double x) {
+            return x > -0.5 && x <= 0.5 ? 1 : 0;
+        }
+    };
+
+    private final double support;
+
+    ResamplingFilter(double support) {
+        this.support = support;
+    }
+
+    /**
+     * @return The radius of the kernel in source pixels at a scale of 1.
+     */
+    public double getSupport() {
+        return support;
+    }
+
+    abstract double weight(double x);
+}
@@ -0,0 +1,65 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.resample;
+
+import java.awt.RenderingHints;
+import java.util.Locale;
+
+/**
+ * Trades scaling quality for throughput.
+ */
+public enum ScalingTier {
+    /**
+     * A single bilinear step, aliases at large reductions.
+     */
+    FAST,
+    /**
+     * Repeated bilinear 2x steps.
+     */
+    PROGRESSIVE,
+    /**
+     * A separable high order kernel.
+     */
+    QUALITY,
+    /**
+     * Area averaging, exact for integral reductions.
+     */
+    AREA;
+
+    /**
+     * @param filter The kernel used by {@link #QUALITY}.
+     * @return A resampler of this tier.
+     */
+    public Resampler createResampler(ResamplingFilter filter) {
+        return switch (this) {
+            case FAST -> new Java2dResampler(RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            case PROGRESSIVE -> new ProgressiveResampler();
+            case QUALITY -> new SeparableResampler(filter);
+            case AREA -> new SeparableResampler(ResamplingFilter.AREA);
+        };
+    }
+
+    /**
+     * @param value The name of a tier, case insensitive.
+     * @return The tier.
+     */
+    public static ScalingTier parse(String value) {
+        return valueOf(value.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,325 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.resample;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * Scales images with a separable kernel, first along columns, then along rows.
+ * <p>
+ * The pixels are read from and written to the arrays backing the images, kernel weights are computed
+ * once per axis. Images of type {@code TYPE_BYTE_GRAY}, {@code TYPE_3BYTE_BGR}, {@code TYPE_4BYTE_ABGR},
+ * {@code TYPE_INT_RGB} and {@code TYPE_INT_ARGB} keep their type, others are converted to
+ * {@code TYPE_INT_RGB} or {@code TYPE_INT_ARGB} first. Colors are premultiplied with alpha while they
+ * are filtered, so transparent pixels don't bleed into their neighbours.
+ * <p>
+ * The vertical pass sums the weighted source rows of a target row, it works on rows of the width of the
+ * source and takes most of the time when downscaling. Its loop is simple enough for the JIT compiler to
+ * vectorize it. The sum is then filtered horizontally. Source rows are kept in a ring buffer of the height of the
+ * vertical kernel, so the memory needed doesn't depend on the height of the source.
+ */
+public class SeparableResampler implements Resampler {
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final ResamplingFilter filter;
+
+    /**
+     * @param filter The kernel to use.
+     */
+    public SeparableResampler(ResamplingFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @return The kernel used.
+     */
+    public ResamplingFilter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage image, int width, int height, BufferedImage destination) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Target size must be positive, got " + width + "x" + height);
+        }
+        BufferedImage source = toSupportedType(image);
+        Pixels in = new Pixels(source);
+        BufferedImage target = Resampler.fits(destination, width, height, source.getType()) ? destination : new BufferedImage(width, height, source.getType());
+        Pixels out = new Pixels(target);
+        int channels = in.channels;
+
+        Scratch scratch = SCRATCH.get();
+        Weights horizontal = scratch.horizontal = weights(scratch.horizontal, source.getWidth(), width);
+        Weights vertical = scratch.vertical = weights(scratch.vertical, source.getHeight(), height);
+
+        int rowLength = width * channels;
+        int sourceLength = source.getWidth() * channels;
+        float[][] ring = scratch.ring(vertical.taps, sourceLength);
+        int[] ringRows = scratch.ringRows;
+        Arrays.fill(ringRows, 0, vertical.taps, -1);
+        float[] acc = scratch.acc(sourceLength);
+        float[] result = scratch.result(rowLength);
+
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(acc, 0, sourceLength, 0f);
+            int first = vertical.start[y];
+            for (int k = 0; k < vertical.taps; k++) {
+                float weight = vertical.weights[y * vertical.taps + k];
+                if (weight == 0) {
+                    continue;
+                }
+                int sourceY = first + k;
+                int slot = sourceY % vertical.taps;
+                if (ringRows[slot] != sourceY) {
+                    in.readRow(sourceY, ring[slot]);
+                    ringRows[slot] = sourceY;
+                }
+                multiplyAdd(acc, ring[slot], weight, sourceLength);
+            }
+            filterRow(acc, result, horizontal, channels, width);
+            out.writeRow(y, result, rowLength);
+        }
+        return target;
+    }
+
+    /**
+     * @return The cached weights if they match, tiles of a level mostly share their weights.
+     */
+    private Weights weights(Weights cached, int sourceLength, int targetLength) {
+        return cached != null && cached.matches(filter, sourceLength, targetLength) ? cached : Weights.compute(filter, sourceLength, targetLength);
+    }
+
+    /**
+     * Adds a weighted row to an accumulator, {@code acc[i] += weight * row[i]}.
+     */
+    private static void multiplyAdd(float[] acc, float[] row, float weight, int length) {
+        for (int i = 0; i < length; i++) {
+            acc[i] += weight * row[i];
+        }
+    }
+
+    private static void filterRow(float[] row, float[] result, Weights weights, int channels, int width) {
+        int taps = weights.taps;
+        float[] w = weights.weights;
+        // All channels of a pixel are summed in one pass over the taps
+        for (int x = 0, o = 0; x < width; x++) {
+            int i = weights.start[x] * channels;
+            int offset = x * taps;
+            if (channels == 1) {
+                float s0 = 0;
+                for (int k = 0; k < taps; k++) {
+                    s0 += w[offset + k] * row[i + k];
+                }
+                result[o++] = s0;
+            } else if (channels == 3) {
+                float s0 = 0, s1 = 0, s2 = 0;
+                for (int k = 0; k < taps; k++, i += 3) {
+                    float weight = w[offset + k];
+                    s0 += weight * row[i];
+                    s1 += weight * row[i + 1];
+                    s2 += weight * row[i + 2];
+                }
+                result[o++] = s0;
+                result[o++] = s1;
+                result[o++] = s2;
+            } else {
+                float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                for (int k = 0; k < taps; k++, i += 4) {
+                    float weight = w[offset + k];
+                    s0 += weight * row[i];
+                    s1 += weight * row[i + 1];
+                    s2 += weight * row[i + 2];
+                    s3 += weight * row[i + 3];
+                }
+                result[o++] = s0;
+                result[o++] = s1;
+                result[o++] = s2;
+                result[o++] = s3;
+            }
+        }
+    }
+
+    private static BufferedImage toSupportedType(BufferedImage image) {
+        // Images not backed by an array, like views of a memory mapping, are copied
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        boolean array = buffer instanceof DataBufferByte || buffer instanceof DataBufferInt;
+        switch (array ? image.getType() : BufferedImage.TYPE_CUSTOM) {
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                return image;
+            default:
+                BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+                        image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = converted.createGraphics();
+                try {
+                    g.drawImage(image, 0, 0, null);
+                } finally {
+                    g.dispose();
+                }
+                return converted;
+        }
+    }
+
+    /**
+     * Access to the backing array of an image, also of sub images sharing the array of their parent.
+     * Rows are read as floats in the order of the samples in memory, with alpha first if present.
+     */
+    private static final class Pixels {
+        private final byte[] bytes;
+        private final int[] ints;
+        private final int offset;
+        private final int stride;
+        private final int width;
+        private final int channels;
+        private final boolean alpha;
+
+        Pixels(BufferedImage image) {
+            Raster raster = image.getRaster();
+            int x = -raster.getSampleModelTranslateX();
+            int y = -raster.getSampleModelTranslateY();
+            this.width = image.getWidth();
+            this.alpha = image.getColorModel().hasAlpha();
+            if (raster.getDataBuffer() instanceof DataBufferByte buffer) {
+                ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                this.bytes = buffer.getData();
+                this.ints = null;
+                this.channels = sampleModel.getPixelStride();
+                this.stride = sampleModel.getScanlineStride();
+                this.offset = buffer.getOffset() + y * stride + x * channels;
+            } else {
+                DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+                SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                this.bytes = null;
+                this.ints = buffer.getData();
+                this.channels = alpha ? 4 : 3;
+                this.stride = sampleModel.getScanlineStride();
+                this.offset = buffer.getOffset() + y * stride + x;
+            }
+        }
+
+        void readRow(int y, float[] row) {
+            int length = width * channels;
+            if (bytes != null) {
+                int start = offset + y * stride;
+                for (int i = 0; i < length; i++) {
+                    row[i] = bytes[start + i] & 0xFF;
+                }
+            } else {
+                int start = offset + y * stride;
+                for (int x = 0, i = 0; x < width; x++) {
+                    int pixel = ints[start + x];
+                    if (alpha) {
+                        row[i++] = pixel >>> 24;
+                    }
+                    row[i++] = (pixel >> 16) & 0xFF;
+                    row[i++] = (pixel >> 8) & 0xFF;
+                    row[i++] = pixel & 0xFF;
+                }
+            }
+            if (alpha) {
+                for (int i = 0; i < length; i += channels) {
+                    float factor = row[i] / 255f;
+                    for (int c = 1; c < channels; c++) {
+                        row[i + c] *= factor;
+                    }
+                }
+            }
+        }
+
+        void writeRow(int y, float[] row, int length) {
+            if (alpha) {
+                for (int i = 0; i < length; i += channels) {
+                    float a = clamp(row[i]);
+                    float factor = a > 0 ? 255f / a : 0;
+                    row[i] = a;
+                    for (int c = 1; c < channels; c++) {
+                        row[i + c] *= factor;
+                    }
+                }
+            }
+            int start = offset + y * stride;
+            if (bytes != null) {
+                for (int i = 0; i < length; i++) {
+                    bytes[start + i] = (byte) round(row[i]);
+                }
+            } else {
+                for (int x = 0, i = 0; x < width; x++) {
+                    int a = alpha ? round(row[i++]) : 0xFF;
+                    int r = round(row[i++]);
+                    int g = round(row[i++]);
+                    int b = round(row[i++]);
+                    ints[start + x] = a << 24 | r << 16 | g << 8 | b;
+                }
+            }
+        }
+
+        private static float clamp(float value) {
+            return value < 0 ? 0 : Math.min(value, 255f);
+        }
+
+        private static int round(float value) {
+            return (int) (clamp(value) + 0.5f);
+        }
+    }
+
+    /**
+     * Buffers and weights reused by the resizes on one thread, grown as needed.
+     */
+    private static final class Scratch {
+        private Weights horizontal;
+        private Weights vertical;
+        private float[][] ring = new float[0][];
+        private int[] ringRows = new int[0];
+        private float[] acc = new float[0];
+        private float[] result = new float[0];
+
+        float[][] ring(int rows, int length) {
+            if (ring.length < rows || ring[0].length < length) {
+                ring = new float[Math.max(rows, ring.length)][Math.max(length, ring.length > 0 ? ring[0].length : 0)];
+                ringRows = new int[ring.length];
+            }
+            return ring;
+        }
+
+        float[] acc(int length) {
+            if (acc.length < length) {
+                acc = new float[length];
+            }
+            return acc;
+        }
+
+        float[] result(int length) {
+            if (result.length < length) {
+                result = new float[length];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.resample;
+
+/**
+ * Precomputed kernel weights for one axis. Every target pixel uses the same number of taps, starting
+ * at its own source index, so the inner loops don't need bounds checks.
+ */
+final class Weights {
+    final ResamplingFilter filter;
+    final int sourceLength;
+    final int targetLength;
+    final int taps;
+    final int[] start;
+    final float[] weights;
+
+    private Weights(ResamplingFilter filter, int sourceLength, int targetLength, int taps, int[] start, float[] weights) {
+        this.filter = filter;
+        this.sourceLength = sourceLength;
+        this.targetLength = targetLength;
+        this.taps = taps;
+        this.start = start;
+        this.weights = weights;
+    }
+
+    boolean matches(ResamplingFilter filter, int sourceLength, int targetLength) {
+        return this.filter == filter && this.sourceLength == sourceLength && this.targetLength == targetLength;
+    }
+
+    static Weights compute(ResamplingFilter filter, int sourceLength, int targetLength) {
+        double ratio = (double) sourceLength / targetLength;
+        // Kernels are stretched when downscaling, so every source pixel contributes
+        double filterScale = Math.max(ratio, 1.0);
+        double support = filter.getSupport() * filterScale;
+        int taps = Math.min(sourceLength, (int) Math.ceil(support * 2) + 1);
+        int[] start = new int[targetLength];
+        float[] weights = new float[targetLength * taps];
+        double[] values = new double[taps + 1];
+
+        for (int i = 0; i < targetLength; i++) {
+            int first;
+            int last;
+            double center = (i + 0.5) * ratio;
+            if (filter == ResamplingFilter.AREA) {
+                if (ratio <= 1) {
+                    first = last = Math.min((int) center, sourceLength - 1);
+                    values[0] = 1;
+                } else {
+                    double low = i * ratio;
+                    double high = (i + 1) * ratio;
+                    first = (int) low;
+                    last = Math.min(sourceLength - 1, (int) Math.ceil(high) - 1);
+                    for (int j = first; j <= last; j++) {
+                        values[j - first] = Math.min(high, j + 1) - Math.max(low, j);
+                    }
+                }
+            } else {
+                first = Math.max(0, (int) Math.floor(center - support));
+                last = Math.min(sourceLength - 1, (int) Math.ceil(center + support) - 1);
+                for (int j = first; j <= last; j++) {
+                    values[j - first] = filter.weight((j + 0.5 - center) / filterScale);
+                }
+            }
+            int count = Math.min(last - first + 1, taps);
+            double sum = 0;
+            for (int k = 0; k < count; k++) {
+                sum += values[k];
+            }
+            // Shift the window back at the end of the axis, the additional taps get a weight of 0
+            int offset = Math.min(first, sourceLength - taps);
+            start[i] = offset;
+            for (int k = 0; k < count; k++) {
+                weights[i * taps + first - offset + k] = (float) (sum != 0 ? values[k] / sum : 0);
+            }
+        }
+        return new Weights(filter, sourceLength, targetLength, taps, start, weights);
+    }
+}
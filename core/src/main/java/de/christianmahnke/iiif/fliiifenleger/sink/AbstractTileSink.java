@@ -4,12 +4,14 @@ import de.christianmahnke.iiif.fliiifenleger.ImageInfo;
 
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.Locale;
 import java.util.Map;
 import java.awt.image.BufferedImage;
 
 public abstract class AbstractTileSink implements TileSink {
 
     protected String format = "jpg"; // Default format
+    protected DuplicateMode duplicateMode = DuplicateMode.COPY;
 
     @Override
     public String getFormatExtension() {
@@ -20,9 +22,17 @@ public abstract class AbstractTileSink implements TileSink {
     public void setOptions(Map<String, String> options) {
         if (options != null) {
             this.format = options.getOrDefault("format", this.format);
+            if (options.containsKey("duplicates")) {
+                this.duplicateMode = DuplicateMode.valueOf(options.get("duplicates").toUpperCase(Locale.ROOT));
+            }
         }
     }
 
+    @Override
+    public DuplicateMode getDuplicateMode() {
+        return duplicateMode;
+    }
+
     public void saveTile(OutputStream outputStream, BufferedImage image) throws TileSinkException {
         this.saveTile(outputStream, image, null);
     }
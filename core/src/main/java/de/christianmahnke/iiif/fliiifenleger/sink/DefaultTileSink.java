@@ -1,30 +1,143 @@
 package de.christianmahnke.iiif.fliiifenleger.sink;
 
 import com.google.auto.service.AutoService;
+import de.christianmahnke.iiif.fliiifenleger.TileBuffer;
 import lombok.NoArgsConstructor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Encodes tiles with ImageIO.
+ * <p>
+ * Every thread keeps its own {@link ImageWriter} and {@link ImageWriteParam}, so the writer lookup
+ * and setup happen once per thread instead of once per tile. They are disposed by {@link #release()}
+ * and when the options change. Supported options besides {@code format}:
+ * <ul>
+ *     <li>{@code quality}: The compression quality between 0 and 1, for JPEG the default is 0.75</li>
+ *     <li>{@code optimizeHuffman}: Compute optimized Huffman tables for JPEG</li>
+ *     <li>{@code progressive}: Write progressive JPEGs</li>
+ *     <li>{@code compressionLevel}: The deflate level between 0 and 9 for PNG</li>
+ * </ul>
+ */
 @AutoService(TileSink.class)
 @NoArgsConstructor
 public class DefaultTileSink extends AbstractTileSink {
     private static final Logger log = LoggerFactory.getLogger(DefaultTileSink.class);
+    /**
+     * Flattened images with more pixels, like large sizes, are not kept for the next tile.
+     */
+    static final int MAX_FLATTENED_PIXELS = 1 << 20;
+
+    private Float quality;
+    private boolean optimizeHuffman = false;
+    private boolean progressive = false;
+    private Integer compressionLevel;
+    // Replaced when the encoders are released, so writers configured with old options aren't reused
+    private volatile ThreadLocal<Encoder> local = new ThreadLocal<>();
+    private final Set<Encoder> encoders = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void setOptions(Map<String, String> options) {
+        super.setOptions(options);
+        if (options != null) {
+            if (options.containsKey("quality")) {
+                float value = Float.parseFloat(options.get("quality"));
+                if (value < 0 || value > 1) {
+                    throw new IllegalArgumentException("Quality must be between 0 and 1, got " + value);
+                }
+                this.quality = value;
+            }
+            if (options.containsKey("optimizeHuffman")) {
+                this.optimizeHuffman = Boolean.parseBoolean(options.get("optimizeHuffman"));
+            }
+            if (options.containsKey("progressive")) {
+                this.progressive = Boolean.parseBoolean(options.get("progressive"));
+            }
+            if (options.containsKey("compressionLevel")) {
+                int value = Integer.parseInt(options.get("compressionLevel"));
+                if (value < 0 || value > 9) {
+                    throw new IllegalArgumentException("Compression level must be between 0 and 9, got " + value);
+                }
+                this.compressionLevel = value;
+            }
+        }
+        release();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Writers of threads encoding a tile right now are disposed once the tile is written.
+     */
+    @Override
+    public void release() {
+        this.local = new ThreadLocal<>();
+        for (Encoder encoder : encoders) {
+            encoders.remove(encoder);
+            encoder.retire();
+        }
+    }
+
+    /**
+     * @return The number of encoders kept for threads.
+     */
+    int getEncoderCount() {
+        return encoders.size();
+    }
 
     @Override
     public void saveTile(OutputStream outputStream, BufferedImage image, Map<String, Object> metadata) throws TileSinkException {
+        if (metadata != null && !metadata.isEmpty()) {
+            log.trace("Image metadata available: {}", metadata.keySet());
+        }
+        ThreadLocal<Encoder> local = this.local;
+        Encoder encoder = local.get();
+        if (encoder == null || !encoder.acquire()) {
+            encoder = createEncoder();
+            encoder.acquire();
+            local.set(encoder);
+            encoders.add(encoder);
+            if (this.local != local) {
+                // Released while the encoder was created
+                encoders.remove(encoder);
+                encoder.retire();
+            }
+        }
+        try {
+            write(encoder, outputStream, image);
+        } catch (TileSinkException e) {
+            // Don't reuse a writer that failed half way
+            local.remove();
+            encoders.remove(encoder);
+            encoder.retire();
+            throw e;
+        } finally {
+            encoder.done();
+        }
+    }
+
+    private void write(Encoder encoder, OutputStream outputStream, BufferedImage image) throws TileSinkException {
         BufferedImage imageToSave;
         // Handle transparency for formats that don't support it (like JPEG)
         if (image.getTransparency() != Transparency.TRANSLUCENT || "png".equalsIgnoreCase(this.format)) {
             imageToSave = image;
         } else {
-            imageToSave = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            imageToSave = encoder.flattened(image.getWidth(), image.getHeight());
             Graphics2D g = imageToSave.createGraphics();
             try {
                 g.setColor(Color.WHITE); // Default background
@@ -34,16 +147,122 @@ public class DefaultTileSink extends AbstractTileSink {
                 g.dispose();
             }
         }
-        if (metadata != null && !metadata.isEmpty()) {
-            log.trace("Image metadata available: {}", metadata.keySet());
-        }
-        try {
-            ImageIO.write(imageToSave, format, outputStream);
-        } catch (IOException e) {
+        ImageWriter writer = encoder.writer();
+        // Pooled tile buffers are written directly, other streams get an in-memory cache instead of a temporary file
+        try (ImageOutputStream imageOutputStream = outputStream instanceof TileBuffer buffer
+                ? buffer.imageOutputStream() : new MemoryCacheImageOutputStream(outputStream)) {
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(imageToSave, null, null), encoder.param());
+        } catch (IOException | RuntimeException e) {
             throw new TileSinkException("Failed to write tile with format " + format, e);
+        } finally {
+            writer.setOutput(null);
         }
     }
 
+    private Encoder createEncoder() throws TileSinkException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new TileSinkException("No image writer for format " + format, null);
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        Float compressionQuality = quality;
+        if (compressionLevel != null && "png".equalsIgnoreCase(format)) {
+            // The PNG writer maps the quality to the deflate level as (int) (9 * (1 - quality)),
+            // aim at the middle of the interval to be safe from rounding
+            compressionQuality = Math.max(0f, 1f - (compressionLevel + 0.5f) / 9f);
+        }
+        if (compressionQuality != null && param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (param.getCompressionType() == null && param.getCompressionTypes() != null) {
+                param.setCompressionType(param.getCompressionTypes()[0]);
+            }
+            param.setCompressionQuality(compressionQuality);
+        }
+        if (progressive && param.canWriteProgressive()) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        if (optimizeHuffman && param instanceof JPEGImageWriteParam jpegParam) {
+            jpegParam.setOptimizeHuffmanTables(true);
+        }
+        log.debug("Created {} for format {} on thread {}", writer.getClass().getSimpleName(), format, Thread.currentThread().getName());
+        return new Encoder(writer, param);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>ImageIO writes tiles without metadata.
+     */
+    @Override
+    public boolean isMetadataRequired() {
+        return false;
+    }
+
     @Override
     public String getName() { return "default"; }
-}
\ No newline at end of file
+
+    /**
+     * The writer of a thread, with an image for flattened tiles that is reused while the tile size stays the same.
+     * A retired encoder is disposed as soon as it isn't writing a tile.
+     */
+    private static final class Encoder {
+        private final ImageWriter writer;
+        private final ImageWriteParam param;
+        private BufferedImage flattened;
+        private boolean busy = false;
+        private boolean retired = false;
+
+        Encoder(ImageWriter writer, ImageWriteParam param) {
+            this.writer = writer;
+            this.param = param;
+        }
+
+        ImageWriter writer() {
+            return writer;
+        }
+
+        ImageWriteParam param() {
+            return param;
+        }
+
+        BufferedImage flattened(int width, int height) {
+            if (flattened != null && flattened.getWidth() == width && flattened.getHeight() == height) {
+                return flattened;
+            }
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            flattened = (long) width * height <= MAX_FLATTENED_PIXELS ? image : null;
+            return image;
+        }
+
+        /**
+         * @return Whether the encoder can be used for a tile, {@code false} if it's retired.
+         */
+        synchronized boolean acquire() {
+            busy = !retired;
+            return busy;
+        }
+
+        synchronized void done() {
+            busy = false;
+            if (retired) {
+                dispose();
+            }
+        }
+
+        synchronized void retire() {
+            if (retired) {
+                return;
+            }
+            retired = true;
+            if (!busy) {
+                dispose();
+            }
+        }
+
+        private void dispose() {
+            flattened = null;
+            writer.dispose();
+        }
+    }
+}
@@ -20,6 +20,21 @@ public interface TileSink {
      */
     void saveTile(OutputStream outputStream, BufferedImage image, Map<String, Object> metadata) throws TileSinkException;
 
+    /**
+     * @return Whether this sink uses the metadata passed to {@link #saveTile}. If not, the metadata
+     * of the source image isn't read at all.
+     */
+    default boolean isMetadataRequired() {
+        return true;
+    }
+
+    /**
+     * @return How outputs with the same content as an already written tile are created, see {@link DuplicateMode}.
+     */
+    default DuplicateMode getDuplicateMode() {
+        return DuplicateMode.COPY;
+    }
+
     /**
      * @return The file extension for the format this sink writes (e.g., "jpg", "png").
      */
@@ -37,4 +52,24 @@ public interface TileSink {
      */
     default void setOptions(Map<String, String> options) {}
 
-}
\ No newline at end of file
+    /**
+     * Releases resources kept between tiles, like encoders of threads, the sink may create them again
+     * if it is used afterwards. Called once all tiles of an image have been written.
+     */
+    default void release() {}
+
+    /**
+     * Ways of writing a tile that has the same content as another one, like {@code full/full} and the
+     * size with the full dimensions. The tile is only encoded once either way.
+     */
+    enum DuplicateMode {
+        /**
+         * Write the encoded bytes again.
+         */
+        COPY,
+        /**
+         * Create a hard link to the first file, falls back to {@link #COPY} if the file system doesn't support it.
+         */
+        LINK
+    }
+}
@@ -18,23 +18,71 @@
 
 package de.christianmahnke.iiif.fliiifenleger.source;
 
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.Tag;
 import de.christianmahnke.iiif.fliiifenleger.TilerException;
+import de.christianmahnke.iiif.fliiifenleger.resample.ResamplingFilter;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
 
 import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
 
 public abstract class AbstractImageSource implements ImageSource {
+private static final Logger log = LoggerFactory.getLogger(AbstractImageSource.class);
 protected URL url = null;
+private volatile CachedMetadata metadata;
+/**
+ * The tier used to scale crops, set by the {@code scaling} option: {@code fast}, {@code progressive}, {@code quality} or {@code area}.
+ */
+protected ScalingTier scaling = ScalingTier.QUALITY;
+/**
+ * The kernel of the {@code quality} tier, set by the {@code resampling} option: {@code lanczos3}, {@code bicubic} or {@code area}.
+ */
+protected ResamplingFilter resampling = ResamplingFilter.BICUBIC;
 @Override
     public BufferedImage getImage() throws ImageSourceException{
             return this.crop(0, 0, this.getWidth(), this.getHeight(), 1.0);
 
         }
 
+    @Override
+    public void setOptions(Map<String, String> options) {
+        if (options != null) {
+            if (options.containsKey("resampling")) {
+                this.resampling = ResamplingFilter.valueOf(options.get("resampling").toUpperCase(Locale.ROOT));
+            }
+            if (options.containsKey("scaling")) {
+                this.scaling = ScalingTier.parse(options.get("scaling"));
+            }
+        }
+    }
+
+    /**
+     * Scales a crop to its target size.
+     * @param tier The scaling tier, {@code null} for the one configured for this source.
+     * @param destination An image the result is written into if it fits, may be {@code null}.
+     */
+    protected BufferedImage resize(BufferedImage image, int width, int height, ScalingTier tier, BufferedImage destination) {
+        return (tier != null ? tier : scaling).createResampler(resampling).resize(image, width, height, destination);
+    }
+
     @Override
     public URL getUrl() {
         return this.url;
@@ -69,4 +117,83 @@ protected URL url = null;
             throw new ImageSourceException("Could not open stream for URL: " + url, e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads the dimensions and sample layout of an image from its header, without decoding the pixels.
+     * @param url The URL of the image.
+     * @return The header of the image or {@code null} if no ImageIO reader is able to read it.
+     * @throws ImageSourceException if the image can't be read.
+     */
+    public static ImageHeader probe(URL url) throws ImageSourceException {
+        try (InputStream is = getInputStream(url);
+             ImageInputStream iis = ImageIO.createImageInputStream(is)) {
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                ImageTypeSpecifier type = reader.getRawImageType(0);
+                if (type == null) {
+                    Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                    type = types.hasNext() ? types.next() : null;
+                }
+                int bands = 3;
+                int bits = 8;
+                if (type != null) {
+                    bands = type.getNumBands();
+                    bits = 0;
+                    for (int band = 0; band < bands; band++) {
+                        bits = Math.max(bits, type.getBitsPerBand(band));
+                    }
+                }
+                return new ImageHeader(reader.getWidth(0), reader.getHeight(0), bands, bits, type != null ? type.getColorModel() : null);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new ImageSourceException("Could not read image header from URL: " + url, e);
+        }
+    }
+
+    /**
+     * Reads the EXIF, IPTC and XMP metadata of the image at the URL of this source. The file is only
+     * parsed once per URL, later calls return the cached result.
+     * @return The unmodifiable metadata grouped by directory, empty if it can't be read.
+     */
+    protected Map<String, Object> readMetadata() {
+        CachedMetadata cached = metadata;
+        if (cached == null || cached.url() != this.url) {
+            synchronized (this) {
+                cached = metadata;
+                if (cached == null || cached.url() != this.url) {
+                    cached = new CachedMetadata(this.url, parseMetadata());
+                    metadata = cached;
+                }
+            }
+        }
+        return cached.metadata();
+    }
+
+    private Map<String, Object> parseMetadata() {
+        Map<String, Object> allMetadata = new HashMap<>();
+        try (InputStream is = getInputStream(this.url)) {
+            log.debug("Reading metadata from: {}", url);
+            Metadata metadata = ImageMetadataReader.readMetadata(is);
+            for (Directory directory : metadata.getDirectories()) {
+                Map<String, String> tags = new HashMap<>();
+                for (Tag tag : directory.getTags()) {
+                    tags.put(tag.getTagName(), tag.getDescription());
+                }
+                allMetadata.put(directory.getName(), Collections.unmodifiableMap(tags));
+            }
+        } catch (ImageProcessingException | ImageSourceException | IOException e) {
+            log.warn("Warning: Could not read metadata for {}. {}", this.url, e.getMessage());
+        }
+        return Collections.unmodifiableMap(allMetadata);
+    }
+
+    private record CachedMetadata(URL url, Map<String, Object> metadata) {
+    }
+}
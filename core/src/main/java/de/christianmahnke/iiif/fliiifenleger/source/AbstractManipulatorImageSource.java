@@ -76,4 +76,14 @@ public abstract class AbstractManipulatorImageSource extends AbstractImageSource
      * <p>Delegates to the base source.
      */
     @Override public Map<String, Object> getMetadata() { return baseSource.getMetadata(); }
-}
\ No newline at end of file
+    /**
+     * {@inheritDoc}
+     * <p>Delegates to the base source.
+     */
+    @Override public void release() { baseSource.release(); }
+    /**
+     * {@inheritDoc}
+     * <p>Delegates to the base source.
+     */
+    @Override public long estimateDecodedSize() { return baseSource.estimateDecodedSize(); }
+}
@@ -0,0 +1,332 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A blur made of one or more box blurs, each computed with running sums along rows and then along
+ * columns, so the cost per pixel doesn't depend on the radius. Three boxes of suitable sizes
+ * approximate a Gaussian blur.
+ * <p>
+ * The blur works on the samples of rows of an image unpacked into {@code int} arrays, colors are
+ * premultiplied with alpha. Pixels outside of the image are taken from its edge, images should
+ * therefore contain a halo of {@link #getReach()} pixels around the region of interest.
+ */
+final class Blur {
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+    /**
+     * Threads keep buffers of up to this many samples for the next blur.
+     */
+    private static final long MAX_SCRATCH = 1 << 22;
+
+    /**
+     * The radius of each box, a box covers {@code 2 * radius + 1} pixels.
+     */
+    private final int[] radii;
+
+    private Blur(int[] radii) {
+        this.radii = Arrays.stream(radii).filter(r -> r > 0).toArray();
+    }
+
+    /**
+     * @param radius The radius of the box, the blur covers {@code 2 * radius + 1} pixels.
+     * @return A box blur.
+     */
+    static Blur box(int radius) {
+        return new Blur(new int[]{radius});
+    }
+
+    /**
+     * Approximates a Gaussian blur with three box blurs, the box sizes are chosen to match the
+     * variance of the Gaussian.
+     *
+     * @param sigma The standard deviation in pixels.
+     * @return A Gaussian blur.
+     */
+    static Blur gaussian(double sigma) {
+        int passes = 3;
+        double variance = 12 * sigma * sigma;
+        int lower = (int) Math.floor(Math.sqrt(variance / passes + 1));
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        // The number of passes using the smaller box
+        long smaller = Math.round((variance - passes * lower * lower - 4 * passes * lower - 3 * passes) / (-4.0 * lower - 4));
+        int[] radii = new int[passes];
+        for (int i = 0; i < passes; i++) {
+            radii[i] = ((i < smaller ? lower : upper) - 1) / 2;
+        }
+        return new Blur(radii);
+    }
+
+    /**
+     * @return The distance in pixels up to which neighbours contribute to a pixel.
+     */
+    int getReach() {
+        return Arrays.stream(radii).sum();
+    }
+
+    /**
+     * @return If the blur doesn't change an image, e.g. because all boxes are a single pixel.
+     */
+    boolean isIdentity() {
+        return radii.length == 0;
+    }
+
+    /**
+     * Blurs an image and returns a region of the result. Rows are read and blurred horizontally one by one,
+     * each vertical box keeps a ring of the rows it covers, so the memory needed grows with the width of
+     * the image and the radius, not with its height.
+     *
+     * @param image The image, including a halo around the region.
+     * @param x The left edge of the region.
+     * @param y The top edge of the region.
+     * @param width The width of the region.
+     * @param height The height of the region.
+     * @param destination An image to write the result to if it has the right size and type, may be {@code null}.
+     * @return The blurred region, the destination if it was used.
+     * @throws ImageSourceException If a row of the image has more samples than an array can hold.
+     */
+    BufferedImage apply(BufferedImage image, int x, int y, int width, int height, BufferedImage destination) throws ImageSourceException {
+        BufferedImage source = PixelKernels.toSupportedType(image);
+        int type = source.getType();
+        int imageWidth = source.getWidth();
+        int imageHeight = source.getHeight();
+        int channels = type == BufferedImage.TYPE_BYTE_GRAY ? 1 : source.getColorModel().hasAlpha() ? 4 : 3;
+        long rowLength = (long) imageWidth * channels;
+        if (rowLength > Integer.MAX_VALUE - 8) {
+            throw new ImageSourceException(String.format("Image of %dx%d pixels is too wide to be blurred.", imageWidth, imageHeight));
+        }
+        int stride = (int) rowLength;
+
+        Scratch scratch = SCRATCH.get();
+        try {
+            int[] row = scratch.row(imageWidth);
+            int[] samples = scratch.buffer(0, stride);
+            int[] blurred = scratch.buffer(1, stride);
+            PixelKernels.Rows in = new PixelKernels.Rows(source);
+            RowSource rows = (line, target) -> {
+                in.read(line, row);
+                int[] current = samples;
+                int[] next = blurred;
+                unpack(row, current, 0, imageWidth, channels);
+                for (int radius : radii) {
+                    horizontal(current, next, imageWidth, 1, channels, radius);
+                    int[] swap = current;
+                    current = next;
+                    next = swap;
+                }
+                System.arraycopy(current, 0, target, 0, stride);
+            };
+            int buffers = 2;
+            for (int radius : radii) {
+                int[][] ring = new int[2 * radius + 2][];
+                for (int i = 0; i < ring.length; i++) {
+                    ring[i] = scratch.buffer(buffers++, stride);
+                }
+                rows = new Vertical(rows, ring, scratch.buffer(buffers++, stride), stride, imageHeight, radius);
+            }
+
+            BufferedImage target = PixelKernels.fits(destination, width, height, type) ? destination : new BufferedImage(width, height, type);
+            PixelKernels.Rows out = new PixelKernels.Rows(target);
+            int[] result = scratch.buffer(buffers, stride);
+            // The rows above the region are still needed to fill the rings
+            for (int line = 0; line < y + height; line++) {
+                rows.read(line, result);
+                if (line >= y) {
+                    pack(result, x * channels, row, width, channels);
+                    out.write(line - y, row);
+                }
+            }
+            return target;
+        } finally {
+            // Buffers of crops much larger than a tile aren't kept
+            if (scratch.size() > MAX_SCRATCH) {
+                SCRATCH.remove();
+            }
+        }
+    }
+
+    /**
+     * Produces the rows of an image, which are read in order.
+     */
+    @FunctionalInterface
+    private interface RowSource {
+        void read(int line, int[] target);
+    }
+
+    /**
+     * A box blur along columns, computed with one running sum per column from the rows it covers,
+     * which are kept in a ring.
+     */
+    private static final class Vertical implements RowSource {
+        private final RowSource input;
+        private final int[][] ring;
+        private final int[] sums;
+        private final int stride;
+        private final int height;
+        private final int radius;
+        private int fetched = -1;
+
+        Vertical(RowSource input, int[][] ring, int[] sums, int stride, int height, int radius) {
+            this.input = input;
+            this.ring = ring;
+            this.sums = sums;
+            this.stride = stride;
+            this.height = height;
+            this.radius = radius;
+        }
+
+        /**
+         * @return A row of the input, all rows up to it are read, the ring holds the last {@code 2 * radius + 2}.
+         */
+        private int[] input(int line) {
+            while (fetched < line) {
+                fetched++;
+                input.read(fetched, ring[fetched % ring.length]);
+            }
+            return ring[line % ring.length];
+        }
+
+        @Override
+        public void read(int line, int[] target) {
+            int size = 2 * radius + 1;
+            if (line == 0) {
+                // The window starts centered on the first row, with the edge repeated above
+                int[] first = input(0);
+                for (int i = 0; i < stride; i++) {
+                    sums[i] = (radius + 1) * first[i];
+                }
+                for (int j = 1; j <= radius; j++) {
+                    int[] next = input(Math.min(j, height - 1));
+                    for (int i = 0; i < stride; i++) {
+                        sums[i] += next[i];
+                    }
+                }
+            }
+            int[] add = input(Math.min(line + radius + 1, height - 1));
+            int[] remove = input(Math.max(line - radius, 0));
+            for (int i = 0; i < stride; i++) {
+                target[i] = (sums[i] + radius) / size;
+                sums[i] += add[i] - remove[i];
+            }
+        }
+    }
+
+    private static void horizontal(int[] source, int[] target, int width, int height, int channels, int radius) {
+        int size = 2 * radius + 1;
+        int last = (width - 1) * channels;
+        for (int y = 0, start = 0; y < height; y++, start += width * channels) {
+            for (int c = 0; c < channels; c++) {
+                int first = start + c;
+                // The window starts centered on the first pixel, with the edge repeated to the left
+                int sum = (radius + 1) * source[first];
+                for (int i = 1; i <= radius; i++) {
+                    sum += source[first + Math.min(i * channels, last)];
+                }
+                for (int x = 0; x < width; x++) {
+                    target[first + x * channels] = (sum + radius) / size;
+                    sum += source[first + Math.min((x + radius + 1) * channels, last)] - source[first + Math.max(x - radius, 0) * channels];
+                }
+            }
+        }
+    }
+
+    private static void unpack(int[] row, int[] samples, int offset, int width, int channels) {
+        for (int x = 0, i = offset; x < width; x++) {
+            int pixel = row[x];
+            switch (channels) {
+                case 1 -> samples[i++] = pixel & 0xFF;
+                case 3 -> {
+                    samples[i++] = (pixel >> 16) & 0xFF;
+                    samples[i++] = (pixel >> 8) & 0xFF;
+                    samples[i++] = pixel & 0xFF;
+                }
+                default -> {
+                    int a = pixel >>> 24;
+                    samples[i++] = a;
+                    samples[i++] = ((pixel >> 16) & 0xFF) * a / 255;
+                    samples[i++] = ((pixel >> 8) & 0xFF) * a / 255;
+                    samples[i++] = (pixel & 0xFF) * a / 255;
+                }
+            }
+        }
+    }
+
+    private static void pack(int[] samples, int offset, int[] row, int width, int channels) {
+        for (int x = 0, i = offset; x < width; x++) {
+            switch (channels) {
+                case 1 -> {
+                    int v = samples[i++];
+                    row[x] = 0xFF000000 | v << 16 | v << 8 | v;
+                }
+                case 3 -> row[x] = 0xFF000000 | samples[i++] << 16 | samples[i++] << 8 | samples[i++];
+                default -> {
+                    int a = samples[i++];
+                    if (a == 0) {
+                        row[x] = 0;
+                        i += 3;
+                    } else {
+                        int r = Math.min(255, (samples[i++] * 255 + a / 2) / a);
+                        int g = Math.min(255, (samples[i++] * 255 + a / 2) / a);
+                        int b = Math.min(255, (samples[i++] * 255 + a / 2) / a);
+                        row[x] = a << 24 | r << 16 | g << 8 | b;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffers of a thread, grown when needed, tiles of a level mostly have the same size.
+     */
+    private static final class Scratch {
+        private final List<int[]> buffers = new ArrayList<>();
+        private int[] row = new int[0];
+
+        int[] row(int length) {
+            if (row.length < length) {
+                row = new int[length];
+            }
+            return row;
+        }
+
+        int[] buffer(int index, int length) {
+            while (buffers.size() <= index) {
+                buffers.add(new int[0]);
+            }
+            if (buffers.get(index).length < length) {
+                buffers.set(index, new int[length]);
+            }
+            return buffers.get(index);
+        }
+
+        /**
+         * @return The number of samples of all buffers.
+         */
+        long size() {
+            return row.length + buffers.stream().mapToLong(buffer -> buffer.length).sum();
+        }
+    }
+}
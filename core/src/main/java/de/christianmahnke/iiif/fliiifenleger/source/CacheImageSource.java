@@ -0,0 +1,183 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import com.google.auto.service.AutoService;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A manipulator remembering the crops of the source it wraps, so repeated or overlapping requests,
+ * like the sizes and the tiles of the lowest levels, don't recompute an expensive chain.
+ * <p>
+ * Crops are kept in a least recently used order and evicted when the total size exceeds the
+ * {@code maxBytes} option. They are keyed by region, scale and scaling tier. Cached images are
+ * returned as they are, callers must not change them. Crops the base source wrote into a
+ * destination are copied, as the destination belongs to the caller.
+ */
+@AutoService(ImageSource.class)
+@NoArgsConstructor
+public class CacheImageSource extends AbstractManipulatorImageSource {
+    private static final Logger log = LoggerFactory.getLogger(CacheImageSource.class);
+    private static final String NAME = "cache";
+    /**
+     * The default size limit of the cached crops, in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private final LinkedHashMap<Key, BufferedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bytes = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void setOptions(Map<String, String> options) {
+        if (options == null) return;
+        if (options.containsKey("maxBytes")) {
+            this.maxBytes = Long.parseLong(options.get("maxBytes"));
+        }
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale) throws ImageSourceException {
+        return crop(x, y, width, height, scale, null, null);
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+        Key key = new Key(x, y, width, height, scale, scaling);
+        synchronized (entries) {
+            BufferedImage cached = entries.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+        // Concurrent misses for the same key compute the crop more than once, the base isn't locked while it works
+        BufferedImage image = baseSource.crop(x, y, width, height, scale, scaling, destination);
+        put(key, image == destination ? copy(image) : image);
+        return image;
+    }
+
+    private void put(Key key, BufferedImage image) {
+        long size = sizeOf(image);
+        if (size > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            BufferedImage previous = entries.put(key, image);
+            if (previous != null) {
+                bytes -= sizeOf(previous);
+            }
+            bytes += size;
+            Iterator<BufferedImage> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= sizeOf(eldest.next());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return The size of the pixels of an image. Crops sharing the pixels of a larger image, like
+     * unscaled crops of decoded images, are counted with their own size only.
+     */
+    static long sizeOf(BufferedImage image) {
+        return ((long) image.getWidth() * image.getHeight() * image.getColorModel().getPixelSize() + 7) / 8;
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        return new BufferedImage(colorModel, image.copyData(null), colorModel.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * @return The number of crops served from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of crops requested from the base source.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of crops removed to stay below the size limit.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return The size of the cached crops, in bytes.
+     */
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Adds the capacity of the cache to the estimate of the base source.
+     */
+    @Override
+    public long estimateDecodedSize() {
+        return super.estimateDecodedSize() + maxBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Clears the cache and delegates to the base source.
+     */
+    @Override
+    public void release() {
+        log.debug("Releasing crop cache: {} hits, {} misses, {} evictions", hits.get(), misses.get(), evictions.get());
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+        super.release();
+    }
+
+    private record Key(int x, int y, int width, int height, double scale, ScalingTier scaling) {
+    }
+}
@@ -18,22 +18,16 @@
 
 package de.christianmahnke.iiif.fliiifenleger.source;
 
-import com.drew.imaging.ImageMetadataReader;
-import com.drew.imaging.ImageProcessingException;
-import com.drew.metadata.Directory;
-import com.drew.metadata.Metadata;
-import com.drew.metadata.Tag;
 import com.google.auto.service.AutoService;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
 
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.RasterFormatException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashMap;
 import java.util.Map;
 import javax.imageio.ImageIO;
 
@@ -45,7 +39,9 @@ import org.slf4j.LoggerFactory;
 @NoArgsConstructor
 public class DefaultImageSource extends AbstractImageSource implements ImageSource {
     private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-    private BufferedImage image;
+    private volatile BufferedImage image;
+    private ImageHeader header;
+    private RasterNormalizer normalizer;
     private static final String NAME = "default";
 
     @Override
@@ -53,60 +49,126 @@ public class DefaultImageSource extends AbstractImageSource implements ImageSour
         return NAME;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Decoded images can be normalized, see {@link RasterNormalizer} for the options.
+     */
+    @Override
+    public void setOptions(Map<String, String> options) {
+        super.setOptions(options);
+        this.normalizer = RasterNormalizer.fromOptions(options);
+    }
+
     @Override
     public BufferedImage getImage()throws ImageSourceException {
- if (image == null) {
-            loadImage();
-        }
-        return image;
+        return decode();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the header of the image is read, decoding is deferred until the pixels are requested.
+     */
     @Override
     public void load(URL url)throws ImageSourceException{
         this.url = url;
-        loadImage();
+        this.image = null;
+        loadHeader();
     }
 
-    private void loadImage()throws ImageSourceException  {
+    private void loadHeader() throws ImageSourceException {
         if (this.url == null){
              throw new IllegalStateException("URL has not been set for DefaultImageSource.");
         }
-        try {
+        log.debug("Reading image header from: {}", url);
+        ImageHeader loadedHeader = AbstractImageSource.probe(this.url);
+        if (loadedHeader == null) {
+            throw new ImageSourceException("Could not read image file (unsupported format or file is corrupt): " + url);
+        }
+        this.header = loadedHeader;
+    }
+
+    private BufferedImage decode() throws ImageSourceException {
+        BufferedImage decoded = image;
+        if (decoded == null) {
+            synchronized (this) {
+                decoded = image;
+                if (decoded == null) {
+                    decoded = loadImage();
+                    image = decoded;
+                }
+            }
+        }
+        return decoded;
+    }
+
+    private BufferedImage loadImage()throws ImageSourceException  {
+        if (this.url == null){
+             throw new IllegalStateException("URL has not been set for DefaultImageSource.");
+        }
+        try (InputStream is = AbstractImageSource.getInputStream(this.url)) {
             log.debug("Loading image from: {}", url);
-            BufferedImage loadedImage = ImageIO.read(AbstractImageSource.getInputStream(this.url));
+            BufferedImage loadedImage = ImageIO.read(is);
             if (loadedImage == null) {
                 throw new ImageSourceException("Could not read image file (unsupported format or file is corrupt): " + url);
             }
-            this.image = loadedImage;
+            return normalizer != null ? normalizer.normalize(loadedImage) : loadedImage;
         } catch (MalformedURLException e) {
             throw new ImageSourceException("Could not create URL from path: " + url, e);
          } catch (IOException e) {
             throw new ImageSourceException("Could not read image from path: " + url, e);
         }
-            
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Drops the decoded image, it's decoded again if pixels are requested later on.
+     */
     @Override
-    public int getWidth() {
-                 if (image == null) {
+    public void release() {
+        this.image = null;
+    }
+
+    /**
+     * @return The header of the image, containing dimensions, bands and color model.
+     */
+    public ImageHeader getHeader() {
+        if (header == null) {
             throw new IllegalStateException("ImageSource not initilized.");
         }
-        return image.getWidth();
+        return header;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Estimated from the header of the image.
+     */
+    @Override
+    public long estimateDecodedSize() {
+        return getHeader().estimateDecodedSize();
+    }
+
+    @Override
+    public int getWidth() {
+        return getHeader().width();
     }
 
     @Override
     public int getHeight() {
-                 if (image == null) {
-            throw new IllegalStateException("ImageSource not initilized.");
-        }
-        return image.getHeight();
+        return getHeader().height();
     }
 
     @Override
     public BufferedImage crop(int x, int y, int width, int height, double scale) throws ImageSourceException {
-         if (image == null) {
-            loadImage();
-        }
+        return crop(x, y, width, height, scale, null, null);
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+        BufferedImage image = decode();
         BufferedImage cropped;
         try {
             cropped = image.getSubimage(x, y, width, height);
@@ -120,36 +182,12 @@ public class DefaultImageSource extends AbstractImageSource implements ImageSour
         int newWidth = (int) Math.ceil(width / scale);
         int newHeight = (int) Math.ceil(height / scale);
 
-        BufferedImage scaled = new BufferedImage(newWidth, newHeight, cropped.getType());
-        Graphics2D g = scaled.createGraphics();
-        try {
-            // Use a high-quality scaling algorithm, similar to Lanczos3
-            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-            g.drawImage(cropped, 0, 0, newWidth, newHeight, null);
-        } finally {
-            g.dispose();
-        }
-        return scaled;
+        return resize(cropped, newWidth, newHeight, scaling, destination);
     }
 
     @Override
     public Map<String, Object> getMetadata() {
-        Map<String, Object> allMetadata = new HashMap<>();
-        try {
-            Metadata metadata = ImageMetadataReader.readMetadata(AbstractImageSource.getInputStream(this.url));
-            for (Directory directory : metadata.getDirectories()) {
-                Map<String, String> tags = new HashMap<>();
-                for (Tag tag : directory.getTags()) {
-                    tags.put(tag.getTagName(), tag.getDescription());
-                }
-                allMetadata.put(directory.getName(), tags);
-            }
-        } catch (ImageProcessingException | ImageSourceException | IOException e) {
-            // Log the error or handle it as needed. For now, we'''ll return an empty map.
-            // In a real application, you might want to use a logging framework.
-            log.warn("Warning: Could not read metadata for {}. {}", this.url, e.getMessage());
-        }
-        return allMetadata;
+        return readMetadata();
     }
 
 }
\ No newline at end of file
@@ -19,14 +19,10 @@
 package de.christianmahnke.iiif.fliiifenleger.source;
 
 import com.google.auto.service.AutoService;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
 import lombok.NoArgsConstructor;
 
-import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorConvertOp;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
-import java.awt.image.RescaleOp;
 import java.util.Map;
 
 @AutoService(ImageSource.class)
@@ -36,7 +32,20 @@ public class FilterImageSource extends AbstractManipulatorImageSource {
     private String filterType = "none";
     private int thresholdValue = 128; // Default for threshold filter
     private int posterizeLevels = 4; // Default for posterize filter
-    private int blurRadius = 3; // Default for blur filter
+    private int blurRadius = 3; // Default for blur and gaussian filter
+    private PointOperation pointOperation;
+
+    /**
+     * Creates a filter applying a given operation, used for filters fused by {@link StackedImageSource}.
+     *
+     * @param pointOperation The operation.
+     * @param baseSource The source to filter.
+     */
+    FilterImageSource(PointOperation pointOperation, ImageSource baseSource) {
+        this.filterType = "fused";
+        this.pointOperation = pointOperation;
+        this.baseSource = baseSource;
+    }
 
     @Override
     public String getName() {
@@ -56,33 +65,63 @@ public class FilterImageSource extends AbstractManipulatorImageSource {
         if (options.containsKey("blurRadius")) {
             this.blurRadius = Integer.parseInt(options.get("blurRadius"));
         }
+        this.pointOperation = createPointOperation();
+    }
+
+    /**
+     * @return The operation if the filter works on single pixels, {@code null} otherwise.
+     */
+    PointOperation getPointOperation() {
+        return pointOperation;
+    }
+
+    /**
+     * @return The source this filter is applied to.
+     */
+    ImageSource getBaseSource() {
+        return baseSource;
     }
 
     @Override
     public BufferedImage crop(int x, int y, int width, int height, double scale) throws ImageSourceException {
+        return crop(x, y, width, height, scale, null, null);
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+        Blur blur = createBlur(scale);
+        if (blur != null && !blur.isIdentity()) {
+            return blur(blur, x, y, width, height, scale, scaling, destination);
+        }
+
         // First, get the cropped image from the base source
-        BufferedImage originalCrop = baseSource.crop(x, y, width, height, scale);
+        BufferedImage originalCrop = baseSource.crop(x, y, width, height, scale, scaling, destination);
+
+        // Now, apply the configured filter, in place if the base source used the destination
+        return applyFilter(originalCrop, destination);
+    }
 
-        // Now, apply the configured filter
-        return applyFilter(originalCrop);
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Filters changing pixels create a new image for every crop, the full size for the sizes of the image among them.
+     */
+    @Override
+    public long estimateDecodedSize() {
+        boolean filters = pointOperation != null || createBlur(1.0) != null;
+        return super.estimateDecodedSize() + (filters ? (long) getWidth() * getHeight() * 4 : 0);
     }
 
-    private BufferedImage applyFilter(BufferedImage original) {
+    private BufferedImage applyFilter(BufferedImage original, BufferedImage destination) {
         if (original == null) return null;
 
+        if (pointOperation != null) {
+            return PixelKernels.apply(original, pointOperation, destination);
+        }
         switch (filterType.toLowerCase()) {
-            case "grayscale":
-                return toGrayscale(original);
-            case "invert":
-                return invertColors(original);
-            case "posterize":
-                return posterize(original);
-            case "threshold":
-                return toThreshold(original);
-            case "sepia":
-                return toSepia(original);
-            case "blur":
-                return blur(original);
+            case "blur": // Radius below a pixel at this scale
+            case "gaussian":
+            case "posterize": // No change or invalid level
             case "none":
                 return original; // No filter
             default:
@@ -90,112 +129,60 @@ public class FilterImageSource extends AbstractManipulatorImageSource {
         }
     }
 
-    private BufferedImage toGrayscale(BufferedImage original) {
-        BufferedImage grayImage = new BufferedImage(original.getWidth(), original.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        ColorConvertOp op = new ColorConvertOp(original.getColorModel().getColorSpace(), grayImage.getColorModel().getColorSpace(), null);
-        op.filter(original, grayImage);
-        return grayImage;
-    }
-
-    private BufferedImage invertColors(BufferedImage original) {
-        // Invert colors using RescaleOp
-        RescaleOp op = new RescaleOp(-1.0f, 255f, null);
-        return op.filter(original, null);
-    }
-
-    private BufferedImage posterize(BufferedImage original) {
-        if (posterizeLevels <= 1) {
-            return original; // No change or invalid level
-        }
-
-        BufferedImage posterizedImage = new BufferedImage(original.getWidth(), original.getHeight(), original.getType());
-        // The number of segments to divide the color range into.
-        int numLevels = Math.max(2, posterizeLevels);
-        // The size of each color segment.
-        int step = 255 / (numLevels - 1);
-
-        for (int y = 0; y < original.getHeight(); y++) {
-            for (int x = 0; x < original.getWidth(); x++) {
-                int rgb = original.getRGB(x, y);
-                int a = (rgb >> 24) & 0xFF;
-                int r = ((rgb >> 16) & 0xFF) / step * step;
-                int g = ((rgb >> 8) & 0xFF) / step * step;
-                int b = (rgb & 0xFF) / step * step;
-
-                int newRgb = (a << 24) | (r << 16) | (g << 8) | b;
-                posterizedImage.setRGB(x, y, newRgb);
-            }
-        }
-        return posterizedImage;
-    }
-
-    private BufferedImage toThreshold(BufferedImage original) {
-        BufferedImage thresholdImage = new BufferedImage(original.getWidth(), original.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
-        for (int y = 0; y < original.getHeight(); y++) {
-            for (int x = 0; x < original.getWidth(); x++) {
-                int rgb = original.getRGB(x, y);
-                // A simple luminance calculation
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-                int gray = (int) (0.299 * r + 0.587 * g + 0.114 * b);
-
-                if (gray > thresholdValue) {
-                    thresholdImage.setRGB(x, y, 0xFFFFFF); // White
-                } else {
-                    thresholdImage.setRGB(x, y, 0x000000); // Black
-                }
-            }
-        }
-        return thresholdImage;
+    /**
+     * Blurs a crop. The crop is taken with a halo of the reach of the blur, so the edges of a tile
+     * are blurred with the pixels of its neighbours and tiled images don't show seams.
+     */
+    private BufferedImage blur(Blur blur, int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+        int halo = (int) Math.ceil(blur.getReach() * scale);
+        int left = Math.max(0, x - halo);
+        int top = Math.max(0, y - halo);
+        int right = Math.min(baseSource.getWidth(), x + width + halo);
+        int bottom = Math.min(baseSource.getHeight(), y + height + halo);
+        BufferedImage padded = baseSource.crop(left, top, right - left, bottom - top, scale, scaling, null);
+
+        int outputWidth = Math.min((int) Math.ceil(width / scale), padded.getWidth());
+        int outputHeight = Math.min((int) Math.ceil(height / scale), padded.getHeight());
+        int offsetX = Math.min((int) Math.round((x - left) / scale), padded.getWidth() - outputWidth);
+        int offsetY = Math.min((int) Math.round((y - top) / scale), padded.getHeight() - outputHeight);
+        return blur.apply(padded, offsetX, offsetY, outputWidth, outputHeight, destination);
     }
 
-    private BufferedImage toSepia(BufferedImage original) {
-        BufferedImage sepiaImage = new BufferedImage(original.getWidth(), original.getHeight(), original.getType());
-
-        for (int y = 0; y < original.getHeight(); y++) {
-            for (int x = 0; x < original.getWidth(); x++) {
-                int rgb = original.getRGB(x, y);
-                int a = (rgb >> 24) & 0xFF;
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-
-                int newR = (int) (0.393 * r + 0.769 * g + 0.189 * b);
-                int newG = (int) (0.349 * r + 0.686 * g + 0.168 * b);
-                int newB = (int) (0.272 * r + 0.534 * g + 0.131 * b);
-
-                // Clamp values to 0-255 range
-                r = Math.min(255, newR);
-                g = Math.min(255, newG);
-                b = Math.min(255, newB);
-
-                int newRgb = (a << 24) | (r << 16) | (g << 8) | b;
-                sepiaImage.setRGB(x, y, newRgb);
-            }
+    /**
+     * The radius is given in pixels of the full resolution, so all levels of a pyramid look alike.
+     *
+     * @return The blur for a scale, {@code null} if the filter doesn't blur.
+     */
+    private Blur createBlur(double scale) {
+        switch (filterType.toLowerCase()) {
+            case "blur":
+                // The size of the box must be odd for a symmetrical kernel
+                int size = (blurRadius % 2 == 0) ? blurRadius + 1 : blurRadius;
+                return Blur.box((int) Math.round(size / 2 / scale));
+            case "gaussian":
+                return Blur.gaussian(blurRadius / scale);
+            default:
+                return null;
         }
-        return sepiaImage;
     }
 
-    private BufferedImage blur(BufferedImage original) {
-        // The radius must be odd for a symmetrical kernel
-        int radius = (blurRadius % 2 == 0) ? blurRadius + 1 : blurRadius;
-        int size = radius * radius;
-        float[] data = new float[size];
-        for (int i = 0; i < size; i++) {
-            data[i] = 1.0f / size;
+    /**
+     * @return The operation of filters working on single pixels, {@code null} for all others.
+     */
+    private PointOperation createPointOperation() {
+        switch (filterType.toLowerCase()) {
+            case "grayscale":
+                return PointOperation.grayscale();
+            case "invert":
+                return PointOperation.invert();
+            case "posterize":
+                return posterizeLevels > 1 ? PointOperation.posterize(posterizeLevels) : null;
+            case "threshold":
+                return PointOperation.threshold(thresholdValue);
+            case "sepia":
+                return PointOperation.sepia();
+            default:
+                return null;
         }
-
-        Kernel kernel = new Kernel(radius, radius, data);
-
-        // ConvolveOp requires the source and destination to have compatible ColorModels.
-        // Creating a destination image of the same type ensures this.
-        BufferedImage blurredImage = new BufferedImage(original.getWidth(), original.getHeight(), original.getType());
-
-        // EDGE_NO_OP is a good default to avoid darkening at the edges.
-        ConvolveOp op = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null);
-        op.filter(original, blurredImage);
-
-        return blurredImage;
     }
-}
\ No newline at end of file
+}
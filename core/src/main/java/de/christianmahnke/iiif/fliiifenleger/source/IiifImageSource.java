@@ -20,6 +20,7 @@ package de.christianmahnke.iiif.fliiifenleger.source;
 
 import com.google.auto.service.AutoService;
 import de.christianmahnke.iiif.fliiifenleger.ImageInfo;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
 import jakarta.json.Json;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonReader;
@@ -28,8 +29,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
@@ -127,19 +126,35 @@ try {
     public int getHeight() {
         return height;
     }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Regions are requested from the server, only level 0 services need the full image in memory
+     * for all crops. Other services return the full size for the sizes of the image, which is as large.
+     */
+    @Override
+    public long estimateDecodedSize() {
+        return (long) width * height * 3;
+    }
+
     private void ensureInitialized() {
         if (this.imageBaseUri == null) throw new IllegalStateException("IIIF Image Source not initialized. Call setUrl() first.");
     }
 
     @Override
     public BufferedImage crop(int x, int y, int width, int height, double scale) throws ImageSourceException {
+        return crop(x, y, width, height, scale, null, null);
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
         if (this.imageBaseUri == null) {
             throw new IllegalStateException("IIIF Image Source not initialized. info.json might be missing or corrupt.");
         }
 
         // For Level 0, we must download the full image and crop/scale locally
         if (this.apiLevel == 0) {
-            return cropInMemory(x, y, width, height, scale);
+            return cropInMemory(x, y, width, height, scale, scaling, destination);
         }
 
         // IIIF region is x,y,w,h
@@ -180,7 +195,7 @@ try {
         }
     }
 
-    private BufferedImage cropInMemory(int x, int y, int width, int height, double scale) throws ImageSourceException {
+    private BufferedImage cropInMemory(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
         log.warn("Performing in-memory crop for Level 0 IIIF source. This may be slow and memory-intensive.");
         // Level 0 only guarantees /full/full/0/default.jpg
         String fullImageUrlString = String.format("%s/full/full/0/default.jpg", this.imageBaseUri.toString());
@@ -200,12 +215,7 @@ try {
 
             int newWidth = (int) Math.ceil(width / scale);
             int newHeight = (int) Math.ceil(height / scale);
-            BufferedImage scaled = new BufferedImage(newWidth, newHeight, cropped.getType());
-            Graphics2D g = scaled.createGraphics();
-            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-            g.drawImage(cropped, 0, 0, newWidth, newHeight, null);
-            g.dispose();
-            return scaled;
+            return resize(cropped, newWidth, newHeight, scaling, destination);
         } catch (Exception e) {
             throw new ImageSourceException("Failed to perform in-memory crop for IIIF source: " + this.url, e);
         }
@@ -0,0 +1,40 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import java.awt.image.ColorModel;
+
+/**
+ * Image properties read from the header of an image file, without decoding the pixels.
+ *
+ * @param width The width of the image.
+ * @param height The height of the image.
+ * @param bands The number of bands (samples per pixel) of the decoded image.
+ * @param bitsPerSample The largest number of bits of a single band.
+ * @param colorModel The color model of the decoded image, {@code null} if the reader doesn't announce it.
+ */
+public record ImageHeader(int width, int height, int bands, int bitsPerSample, ColorModel colorModel) {
+
+    /**
+     * @return The estimated number of bytes the decoded image occupies in memory.
+     */
+    public long estimateDecodedSize() {
+        return (long) width * height * bands * Math.max(1, (bitsPerSample + 7) / 8);
+    }
+}
@@ -18,6 +18,8 @@
 
 package de.christianmahnke.iiif.fliiifenleger.source;
 
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
+
 import java.awt.image.BufferedImage;
 import java.util.Map;
 import java.net.URL;
@@ -64,12 +66,46 @@ public interface ImageSource {
      */
     BufferedImage crop(int x, int y, int width, int height, double scale) throws ImageSourceException;
 
+    /**
+     * Extracts a rectangular region from the image, scaled with the given tier instead of the one configured
+     * for the source. Sources that don't support tiers ignore it.
+     * <p>
+     * Scaled results can be written into a destination image supplied by the caller, so tile sized images can
+     * be reused instead of allocated for every tile. The destination is only used if it has the size and type
+     * of the result, callers must use the returned image and may only reuse the destination afterwards.
+     * Unscaled crops may share the pixels of the source and must not be modified.
+     * @param scale The factor by which the cropped image should be scaled down. A scale of 1 means no scaling.
+     * @param scaling The scaling tier, {@code null} for the one configured for the source.
+     * @param destination An image the result may be written into, {@code null} to allocate a new one.
+     * @return The cropped region, either the destination or another image.
+     */
+    default BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+        return crop(x, y, width, height, scale);
+    }
+
     /**
      * Returns metadata extracted from the image, such as EXIF or XMP data.
      * @return A map representing the image metadata.
      */
     Map<String, Object> getMetadata();
 
+    /**
+     * Releases decoded image data, the source may load it again if it is used afterwards.
+     * Called once all tiles of an image have been generated.
+     */
+    default void release() {}
+
+    /**
+     * Estimates the memory the source occupies while tiles are generated, used to admit images into a
+     * memory budget. Besides the decoded image this includes the largest crop the {@code Tiler} requests,
+     * the full size for the sizes of the image. Called after {@link #load(URL)} and {@link #setOptions(Map)},
+     * sources that decode lazily answer it from the header of the image.
+     * @return The estimated number of bytes, by default the size of the image as 32 bit pixels.
+     */
+    default long estimateDecodedSize() {
+        return (long) getWidth() * getHeight() * 4;
+    }
+
         /**
      * Sets options for this image source.
      *
@@ -19,69 +19,141 @@
 package de.christianmahnke.iiif.fliiifenleger.source;
 
 import javax.imageio.ImageIO;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.RasterFormatException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
 
 import com.google.auto.service.AutoService;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
 import lombok.NoArgsConstructor;
 
 @NoArgsConstructor
 @AutoService(ImageSource.class)
 public class JxlImageSource extends AbstractImageSource implements ImageSource {
-    private BufferedImage image;
+    private volatile BufferedImage image;
+    private ImageHeader header;
+    private RasterNormalizer normalizer;
     private static final String NAME = "jxl";
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Decoded images can be normalized, see {@link RasterNormalizer} for the options.
+     */
     @Override
-    public BufferedImage getImage() {
-        return image;
+    public void setOptions(Map<String, String> options) {
+        super.setOptions(options);
+        this.normalizer = RasterNormalizer.fromOptions(options);
     }
 
+    @Override
+    public BufferedImage getImage() throws ImageSourceException {
+        return decode();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the header of the image is read, decoding is deferred until the pixels are requested.
+     */
     @Override
     public void load(URL url)throws ImageSourceException{
         this.url = url;
-        loadImage();
+        this.image = null;
+        this.header = AbstractImageSource.probe(url);
+        if (this.header == null) {
+            throw new ImageSourceException("Could not read JXL image file (is the imageio-jxl plugin on the classpath?): " + url);
+        }
+    }
+
+    /**
+     * @return The header of the image, containing dimensions, bands and color model.
+     */
+    public ImageHeader getHeader() {
+        if (header == null) {
+            throw new IllegalStateException("ImageSource not initilized.");
+        }
+        return header;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Estimated from the header of the image.
+     */
+    @Override
+    public long estimateDecodedSize() {
+        return getHeader().estimateDecodedSize();
     }
 
     @Override
     public int getWidth() {
-        return image.getWidth();
+        return getHeader().width();
     }
 
     @Override
     public int getHeight() {
-        return image.getHeight();
+        return getHeader().height();
     }
 
-     private void loadImage() throws ImageSourceException  {
+    private BufferedImage decode() throws ImageSourceException {
+        BufferedImage decoded = image;
+        if (decoded == null) {
+            synchronized (this) {
+                decoded = image;
+                if (decoded == null) {
+                    decoded = loadImage();
+                    image = decoded;
+                }
+            }
+        }
+        return decoded;
+    }
+
+     private BufferedImage loadImage() throws ImageSourceException  {
         if (this.url == null){
             throw new IllegalStateException("URL has not been set for JxlImageSource.");
         }
-        try {
-            BufferedImage loadedImage = ImageIO.read(AbstractImageSource.getInputStream(this.url));
+        try (InputStream is = AbstractImageSource.getInputStream(this.url)) {
+            BufferedImage loadedImage = ImageIO.read(is);
             if (loadedImage == null) {
                 throw new ImageSourceException("Could not read JXL image file (is the imageio-jxl plugin on the classpath?): " + url);
             }
-            this.image = loadedImage;
+            return normalizer != null ? normalizer.normalize(loadedImage) : loadedImage;
         } catch (MalformedURLException e) {
             throw new ImageSourceException("Could not create URL from path: " +url, e);
         } catch (IOException e) {
             throw new ImageSourceException("Could not read image from path: " + url, e);
+        } catch (ImageSourceException e) {
+            throw e;
         } catch (Exception e) {
             throw new ImageSourceException("Could not read JXL image from path: " + url, e);
         }
 
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Drops the decoded image, it's decoded again if pixels are requested later on.
+     */
+    @Override
+    public void release() {
+        this.image = null;
+    }
+
     @Override
     public BufferedImage crop(int x, int y, int width, int height, double scale) throws ImageSourceException {
-        getImage();
-        if (image == null) loadImage();
+        return crop(x, y, width, height, scale, null, null);
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+        BufferedImage image = decode();
         BufferedImage cropped;
         try {
             cropped = image.getSubimage(x, y, width, height);
@@ -95,16 +167,7 @@ public class JxlImageSource extends AbstractImageSource implements ImageSource {
         int newWidth = (int) Math.ceil(width / scale);
         int newHeight = (int) Math.ceil(height / scale);
 
-        // See https://github.com/usnistgov/pyramidio/issues/7#issuecomment-369357845
-        BufferedImage scaled = new BufferedImage(newWidth, newHeight, cropped.getType()==0?5:cropped.getType());
-        Graphics2D g = scaled.createGraphics();
-        try {
-            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-            g.drawImage(cropped, 0, 0, newWidth, newHeight, null);
-        } finally {
-            g.dispose();
-        }
-        return scaled;
+        return resize(cropped, newWidth, newHeight, scaling, destination);
     }
 
     @Override
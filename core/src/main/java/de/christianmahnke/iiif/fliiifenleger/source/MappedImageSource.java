@@ -0,0 +1,526 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import com.google.auto.service.AutoService;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An image source that keeps the decoded pixels in a memory mapped scratch file instead of the heap.
+ * This allows tiling images larger than the 2^31 samples a single Java array can hold, with a heap
+ * that only needs to fit a strip of the image during decoding and the tiles during tiling.
+ * <p>
+ * The image is decoded on first use. If the decoder can write 8 bit samples in the layout of the mapping,
+ * it's decoded sequentially into the mapping, in a single pass for images up to 2 GiB, the size limit of a
+ * raster. Other images are decoded strip by strip and converted, formats that can't seek to a strip, like PNG,
+ * are decoded up to the end of every strip again, so the strip height should be as large as the heap allows.
+ * Crops copy the requested rows from the mapping, scaled crops are reduced while reading, full resolution crops
+ * larger than a strip are backed by the mapping itself, so no size of the image needs a full resolution copy on
+ * the heap. The mapping is unmapped and the scratch file deleted on {@link #release()}.
+ * <p>
+ * Options:
+ * <ul>
+ *     <li>{@code scratchDir}: The directory for the scratch file, defaults to {@code java.io.tmpdir}.</li>
+ *     <li>{@code stripHeight}: The number of rows decoded at once if the image is decoded in strips, defaults
+ *     to rows fitting in 64 MiB.</li>
+ * </ul>
+ */
+@AutoService(ImageSource.class)
+@NoArgsConstructor
+public class MappedImageSource extends AbstractImageSource implements ImageSource {
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String NAME = "mapped";
+    private static final long DEFAULT_STRIP_BYTES = 64L * 1024 * 1024;
+
+    @Getter
+    private Path scratchDir = Paths.get(System.getProperty("java.io.tmpdir"));
+    @Getter
+    private int stripHeight = 0;
+
+    private ImageHeader header;
+    private int type;
+    private int pixelBytes;
+    private Mapping mapping;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void setOptions(Map<String, String> options) {
+        super.setOptions(options);
+        if (options == null) return;
+        if (options.containsKey("scratchDir")) {
+            this.scratchDir = Paths.get(options.get("scratchDir"));
+        }
+        if (options.containsKey("stripHeight")) {
+            this.stripHeight = Integer.parseInt(options.get("stripHeight"));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the header of the image is read, decoding is deferred until the pixels are requested.
+     */
+    @Override
+    public void load(URL url) throws ImageSourceException {
+        release();
+        this.url = url;
+        this.header = AbstractImageSource.probe(url);
+        if (this.header == null) {
+            throw new ImageSourceException("Could not read image file (unsupported format or file is corrupt): " + url);
+        }
+        if (header.bands() == 1 || header.bands() == 2 && !hasAlpha(header)) {
+            type = BufferedImage.TYPE_BYTE_GRAY;
+            pixelBytes = 1;
+        } else if (hasAlpha(header)) {
+            type = BufferedImage.TYPE_4BYTE_ABGR;
+            pixelBytes = 4;
+        } else {
+            type = BufferedImage.TYPE_3BYTE_BGR;
+            pixelBytes = 3;
+        }
+    }
+
+    private static boolean hasAlpha(ImageHeader header) {
+        return header.colorModel() != null ? header.colorModel().hasAlpha() : header.bands() == 4;
+    }
+
+    /**
+     * @return The header of the image, containing dimensions, bands and color model.
+     */
+    public ImageHeader getHeader() {
+        if (header == null) {
+            throw new IllegalStateException("ImageSource not initilized.");
+        }
+        return header;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The decoded pixels are kept in the scratch file, at most a strip is held in memory while decoding.
+     * The full size is backed by the scratch file, the half size is the largest crop copied to the heap.
+     */
+    @Override
+    public long estimateDecodedSize() {
+        return stripBytes() + copyBytes(getWidth(), getHeight(), 2);
+    }
+
+    private long stripBytes() {
+        return (long) stripRows() * getWidth() * pixelBytes;
+    }
+
+    private int stripRows() {
+        long rowBytes = (long) getWidth() * pixelBytes;
+        return stripHeight > 0 ? stripHeight : (int) Math.max(1, Math.min(getHeight(), DEFAULT_STRIP_BYTES / rowBytes));
+    }
+
+    @Override
+    public int getWidth() {
+        return getHeader().width();
+    }
+
+    @Override
+    public int getHeight() {
+        return getHeader().height();
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale) throws ImageSourceException {
+        return crop(x, y, width, height, scale, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Scaled crops are reduced while they are read from the mapping, by averaging blocks of pixels, so
+     * at most about four times the target size is copied to the heap. Full resolution crops that would take
+     * more than a strip on the heap are returned as images backed by the mapping, they must not be written
+     * to and stay valid until the source is released.
+     */
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > getWidth() || y + height > getHeight()) {
+            throw new ImageSourceException(String.format("Crop region [x=%d, y=%d, width=%d, height=%d] is outside the image bounds [width=%d, height=%d].", x, y, width, height, getWidth(), getHeight()));
+        }
+        int newWidth = (int) Math.ceil(width / scale);
+        int newHeight = (int) Math.ceil(height / scale);
+        long limit = stripBytes();
+        // Only copy about twice the target size, the rest is done by a proper downscale,
+        // if that's more than a strip, reduce by the whole scale and only fix the rounding
+        int step = Math.max(1, (int) Math.floor(scale / 2));
+        if (copyBytes(width, height, step) > limit) {
+            step = Math.max(1, (int) Math.floor(scale));
+        }
+        int copyWidth = (width + step - 1) / step;
+        int copyHeight = (height + step - 1) / step;
+
+        Mapping mapping = acquire();
+        try {
+            if (step == 1 && copyWidth == newWidth && copyHeight == newHeight && copyBytes(width, height, 1) > limit) {
+                return mapping.view(x, y, width, height, type);
+            }
+            BufferedImage copy = new BufferedImage(copyWidth, copyHeight, type);
+            byte[] data = ((DataBufferByte) copy.getRaster().getDataBuffer()).getData();
+            if (step == 1) {
+                for (int r = 0; r < copyHeight; r++) {
+                    mapping.read(y + r, x, data, r * copyWidth * pixelBytes, width);
+                }
+            } else {
+                reduce(mapping, x, y, width, height, step, data, copyWidth);
+            }
+            if (copyWidth == newWidth && copyHeight == newHeight) {
+                return copy;
+            }
+            return resize(copy, newWidth, newHeight, scaling, destination);
+        } finally {
+            done(mapping);
+        }
+    }
+
+    private long copyBytes(int width, int height, int step) {
+        return (long) ((width + step - 1) / step) * ((height + step - 1) / step) * pixelBytes;
+    }
+
+    /**
+     * Averages blocks of {@code step} by {@code step} pixels of a region of the mapping into the given array,
+     * reading the rows of a block one after another, so only a row of the region is held at a time.
+     */
+    private void reduce(Mapping mapping, int x, int y, int width, int height, int step, byte[] data, int copyWidth) {
+        int rowLength = copyWidth * pixelBytes;
+        byte[] row = new byte[width * pixelBytes];
+        long[] sums = new long[rowLength];
+        for (int r = 0, offset = 0; r * step < height; r++, offset += rowLength) {
+            Arrays.fill(sums, 0);
+            int rows = Math.min(step, height - r * step);
+            for (int k = 0; k < rows; k++) {
+                mapping.read(y + r * step + k, x, row, 0, width);
+                for (int c = 0, i = 0; c < copyWidth; c++) {
+                    int end = Math.min(width, (c + 1) * step) * pixelBytes;
+                    for (int s = c * step * pixelBytes; s < end; s += pixelBytes) {
+                        for (int b = 0; b < pixelBytes; b++) {
+                            sums[i + b] += row[s + b] & 0xff;
+                        }
+                    }
+                    i += pixelBytes;
+                }
+            }
+            for (int c = 0, i = 0; c < copyWidth; c++) {
+                long count = (long) rows * (Math.min(width, (c + 1) * step) - c * step);
+                for (int b = 0; b < pixelBytes; b++, i++) {
+                    data[offset + i] = (byte) ((sums[i] + count / 2) / count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the mapping, decoding the image if needed. The mapping stays valid until it's handed back to
+     * {@link #done(Mapping)}, even if the source is released meanwhile.
+     */
+    private synchronized Mapping acquire() throws ImageSourceException {
+        if (mapping == null) {
+            mapping = decode();
+        }
+        mapping.users++;
+        return mapping;
+    }
+
+    /**
+     * Hands back a mapping, it's closed if the source has been released and no crop uses it anymore.
+     */
+    private synchronized void done(Mapping used) {
+        if (--used.users == 0 && used != mapping) {
+            used.close();
+        }
+    }
+
+    private Mapping decode() throws ImageSourceException {
+        if (this.url == null) {
+            throw new IllegalStateException("URL has not been set for MappedImageSource.");
+        }
+        int width = getWidth();
+        int height = getHeight();
+
+        Mapping mapped;
+        try {
+            Files.createDirectories(scratchDir);
+            Path scratch = Files.createTempFile(scratchDir, "fliiifenleger-", ".raw");
+            // The file is deleted once the mapping is closed
+            FileChannel channel = FileChannel.open(scratch, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            try {
+                mapped = new Mapping(channel, width, height, pixelBytes);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new ImageSourceException("Could not create scratch file in: " + scratchDir, e);
+        }
+
+        boolean local = "file".equals(url.getProtocol());
+        // Local files are read with random access, other streams are cached by ImageIO
+        try (InputStream is = local ? null : AbstractImageSource.getInputStream(this.url);
+             ImageInputStream iis = local ? new FileImageInputStream(new File(url.toURI())) : ImageIO.createImageInputStream(is)) {
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new ImageSourceException("Could not read image file (unsupported format or file is corrupt): " + url);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, false, true);
+                if (decodesInto(reader)) {
+                    // A raster is limited to 2 GiB, so larger images take more than one pass
+                    int rows = mapped.maxRasterRows();
+                    log.debug("Decoding {} directly into scratch file in {} pass(es)", url, (height + rows - 1) / rows);
+                    for (int y = 0; y < height; y += rows) {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceRegion(new Rectangle(0, y, width, Math.min(rows, height - y)));
+                        param.setDestination(mapped.image(y, Math.min(rows, height - y), type));
+                        reader.read(0, param);
+                    }
+                } else {
+                    int strip = stripRows();
+                    log.debug("Decoding {} into scratch file in strips of {} rows", url, strip);
+                    for (int y = 0; y < height; y += strip) {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceRegion(new Rectangle(0, y, width, Math.min(strip, height - y)));
+                        mapped.write(y, toLayout(reader.read(0, param)));
+                    }
+                }
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | URISyntaxException | ImageSourceException | RuntimeException e) {
+            mapped.close();
+            if (e instanceof ImageSourceException ise) {
+                throw ise;
+            }
+            throw new ImageSourceException("Could not read image from path: " + url, e);
+        }
+        return mapped;
+    }
+
+    /**
+     * Checks if the reader can write its samples into the layout of the mapping itself, which allows decoding
+     * the image in a single pass. Otherwise the image is decoded in strips, which are converted to the layout.
+     */
+    private boolean decodesInto(ImageReader reader) throws IOException {
+        ColorModel target = new BufferedImage(1, 1, type).getColorModel();
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        while (types.hasNext()) {
+            ImageTypeSpecifier spec = types.next();
+            ColorModel model = spec.getColorModel();
+            if (spec.getNumBands() != pixelBytes || model instanceof IndexColorModel
+                    || model.hasAlpha() != target.hasAlpha()
+                    || model.getColorSpace().getType() != target.getColorSpace().getType()) {
+                continue;
+            }
+            boolean bytes = true;
+            for (int b = 0; b < pixelBytes; b++) {
+                bytes &= spec.getBitsPerBand(b) == 8;
+            }
+            if (bytes) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private BufferedImage toLayout(BufferedImage strip) {
+        if (strip.getType() == type) {
+            return strip;
+        }
+        BufferedImage converted = new BufferedImage(strip.getWidth(), strip.getHeight(), type);
+        Graphics2D g = converted.createGraphics();
+        try {
+            g.drawImage(strip, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return converted;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Unmaps and deletes the scratch file once no crop uses it anymore, the image is decoded again if
+     * pixels are requested later on.
+     */
+    @Override
+    public synchronized void release() {
+        Mapping released = mapping;
+        mapping = null;
+        if (released != null && released.users == 0) {
+            released.close();
+        }
+    }
+
+    @Override
+    public Map<String, Object> getMetadata() {
+        return readMetadata();
+    }
+
+    /**
+     * The rows of the image in a memory mapped segment of the scratch file, unmapped when its arena is closed.
+     */
+    private static class Mapping {
+        private final FileChannel channel;
+        private final Arena arena;
+        private final MemorySegment segment;
+        private final long rowBytes;
+        private final int pixelBytes;
+        private final int width;
+        /**
+         * The number of crops reading from the mapping, guarded by the source.
+         */
+        private int users = 0;
+
+        Mapping(FileChannel channel, int width, int height, int pixelBytes) throws IOException {
+            this.channel = channel;
+            this.width = width;
+            this.pixelBytes = pixelBytes;
+            this.rowBytes = (long) width * pixelBytes;
+            // Crops read from several threads
+            this.arena = Arena.ofShared();
+            try {
+                this.segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.multiplyExact(rowBytes, height), arena);
+            } catch (IOException | RuntimeException e) {
+                arena.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return The number of rows an image backed by the mapping can have at most.
+         */
+        int maxRasterRows() {
+            return (int) Math.max(1, Integer.MAX_VALUE / rowBytes);
+        }
+
+        /**
+         * @return An image of the given type whose pixels are stored in the given rows of the mapping, for decoders writing into it.
+         */
+        BufferedImage image(int y, int rows, int type) throws ImageSourceException {
+            return view(0, y, width, rows, type);
+        }
+
+        /**
+         * @return An image of the given type whose pixels are stored in the given region of the mapping.
+         * @throws ImageSourceException If the region spans more than the 2 GiB a raster can address.
+         */
+        BufferedImage view(int x, int y, int width, int height, int type) throws ImageSourceException {
+            long start = y * rowBytes + (long) x * pixelBytes;
+            long length = (height - 1) * rowBytes + (long) width * pixelBytes;
+            if (length > Integer.MAX_VALUE) {
+                throw new ImageSourceException(String.format("Crop region of %dx%d pixels is too large for a single raster.", width, height));
+            }
+            BufferedImage prototype = new BufferedImage(1, 1, type);
+            int[] bandOffsets = ((ComponentSampleModel) prototype.getSampleModel()).getBandOffsets();
+            SampleModel sampleModel = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, pixelBytes, Math.toIntExact(rowBytes), bandOffsets);
+            WritableRaster raster = Raster.createWritableRaster(sampleModel, new MappedDataBuffer(segment.asSlice(start, length)), null);
+            return new BufferedImage(prototype.getColorModel(), raster, false, null);
+        }
+
+        void write(int y, BufferedImage strip) {
+            byte[] data = ((DataBufferByte) strip.getRaster().getDataBuffer()).getData();
+            MemorySegment.copy(data, 0, segment, ValueLayout.JAVA_BYTE, y * rowBytes, Math.toIntExact(strip.getHeight() * rowBytes));
+        }
+
+        void read(int row, int x, byte[] dest, int offset, int width) {
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, row * rowBytes + (long) x * pixelBytes, dest, offset, width * pixelBytes);
+        }
+
+        /**
+         * Unmaps the scratch file and closes the channel, which deletes it.
+         */
+        void close() {
+            arena.close();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close scratch file: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A byte buffer of a raster, backed by a memory mapped segment instead of an array.
+     */
+    private static class MappedDataBuffer extends DataBuffer {
+        private final MemorySegment segment;
+
+        MappedDataBuffer(MemorySegment segment) {
+            super(DataBuffer.TYPE_BYTE, Math.toIntExact(segment.byteSize()));
+            this.segment = segment;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return segment.get(ValueLayout.JAVA_BYTE, i) & 0xff;
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            segment.set(ValueLayout.JAVA_BYTE, i, (byte) val);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.auto.service.AutoService;
+import de.christianmahnke.iiif.fliiifenleger.Tiler;
+import de.christianmahnke.iiif.fliiifenleger.resample.Resampler;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Composes many images into one virtual canvas, e.g. the sheets of a map or the pages of a spread.
+ * <p>
+ * The mosaic is described by a YAML file, passed as the image to tile or with the {@code config}
+ * option. Images are placed at their offsets or, if a {@code grid} is given, in cells row by row:
+ * <pre>{@code
+ * background: "#ffffff"
+ * cache: 4
+ * grid:
+ *   columns: 8
+ * images:
+ *   - path: sheet-01.jpg
+ *   - path: sheet-02.jxl
+ *     type: jxl
+ *     x: 5000
+ *     y: 0
+ * }</pre>
+ * Paths are relative to the YAML file. Only the header of the images is read up front, a crop
+ * decodes just the images intersecting it, one after another. At most {@code cache} images are kept
+ * decoded, crops wait for an image to be released if all of them are in use. The least recently used
+ * images not used by a crop are released. Tiles are generated row by row and a row of tiles crossing the
+ * border of two rows of images needs all of them, so {@code cache} defaults to two rows of images, at least
+ * 4. Smaller values save memory, but images are decoded again for every row of tiles. Crops larger than
+ * {@link #STRIP_PIXELS} are composed strip by strip while they are read. Other options are passed to all images.
+ */
+@AutoService(ImageSource.class)
+@NoArgsConstructor
+public class MosaicImageSource extends AbstractImageSource {
+    private static final Logger log = LoggerFactory.getLogger(MosaicImageSource.class);
+    private static final String NAME = "mosaic";
+    /**
+     * The default number of images kept decoded.
+     */
+    public static final int DEFAULT_CACHE = 4;
+    /**
+     * Crops composed of several images with more pixels are composed strip by strip while they are read.
+     */
+    static final int STRIP_PIXELS = 1 << 22;
+
+    private final List<Member> members = new ArrayList<>();
+    private final LinkedHashSet<Member> decoded = new LinkedHashSet<>();
+    private Map<String, String> memberOptions = Map.of();
+    /**
+     * The number of images kept decoded, {@code null} for two rows of images.
+     */
+    private Integer cache;
+    /**
+     * The number of images used by crops, guarded by the list of decoded images.
+     */
+    private int inUse = 0;
+    /**
+     * The largest number of images a horizontal line crosses.
+     */
+    private int rowSpan = 1;
+    private Color background = Color.WHITE;
+    private int width = 0;
+    private int height = 0;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Reads the YAML description of the mosaic and the headers of its images.
+     */
+    @Override
+    public void load(URL url) throws ImageSourceException {
+        this.url = url;
+        configure(url);
+    }
+
+    @Override
+    public void setOptions(Map<String, String> options) {
+        if (options == null) return;
+        super.setOptions(options);
+        try {
+            if (options.containsKey("config")) {
+                this.url = new File(options.get("config")).toURI().toURL();
+                configure(url);
+            }
+        } catch (MalformedURLException | ImageSourceException e) {
+            throw new IllegalArgumentException("Failed to configure mosaic from " + options.get("config"), e);
+        }
+        if (options.containsKey("cache")) {
+            this.cache = Integer.parseInt(options.get("cache"));
+        }
+        this.memberOptions = options.entrySet().stream()
+                .filter(e -> !e.getKey().equals("config") && !e.getKey().equals("cache"))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        for (Member member : members) {
+            applyOptions(member);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void configure(URL config) throws ImageSourceException {
+        Map<String, Object> yaml;
+        try (InputStream is = getInputStream(config)) {
+            yaml = new ObjectMapper(new YAMLFactory()).readValue(is, Map.class);
+        } catch (IOException e) {
+            throw new ImageSourceException("Could not read mosaic description: " + config, e);
+        }
+        if (yaml == null || !(yaml.get("images") instanceof List<?> images) || images.isEmpty()) {
+            throw new ImageSourceException("Mosaic description must contain an 'images' list: " + config);
+        }
+        release();
+        members.clear();
+        if (yaml.containsKey("background")) {
+            this.background = Color.decode(yaml.get("background").toString());
+        }
+        if (yaml.containsKey("cache")) {
+            this.cache = ((Number) yaml.get("cache")).intValue();
+        }
+
+        for (Object image : images) {
+            Map<String, Object> definition = (Map<String, Object>) image;
+            members.add(createMember(config, definition));
+        }
+        if (yaml.get("grid") instanceof Map<?, ?> grid) {
+            arrange((Map<String, Object>) grid);
+        } else {
+            rowSpan = members.stream()
+                    .mapToInt(member -> (int) members.stream()
+                            .filter(other -> other.bounds.y < member.bounds.y + member.bounds.height && member.bounds.y < other.bounds.y + other.bounds.height)
+                            .count())
+                    .max().orElse(1);
+        }
+        width = members.stream().mapToInt(member -> member.bounds.x + member.bounds.width).max().orElse(0);
+        height = members.stream().mapToInt(member -> member.bounds.y + member.bounds.height).max().orElse(0);
+        log.info("Mosaic of {} images configured. Final dimensions: {}x{}", members.size(), width, height);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Member createMember(URL config, Map<String, Object> definition) throws ImageSourceException {
+        String type = (String) definition.getOrDefault("type", "default");
+        Object path = definition.get("path");
+        if (path == null) {
+            throw new ImageSourceException("Mosaic image without a path in " + config);
+        }
+        ImageSource template = Tiler.SOURCE_REGISTRY.get(type);
+        if (template == null) {
+            throw new IllegalArgumentException("Unknown source type '" + type + "'");
+        }
+        try {
+            ImageSource source = template.getClass().getConstructor().newInstance();
+            source.load(config.toURI().resolve(path.toString()).toURL());
+            Map<String, String> options = ((Map<String, Object>) definition.getOrDefault("options", new HashMap<>()))
+                    .entrySet().stream()
+                    .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().toString()));
+            Rectangle bounds = new Rectangle(number(definition, "x"), number(definition, "y"), source.getWidth(), source.getHeight());
+            Member member = new Member(source, options, bounds);
+            applyOptions(member);
+            return member;
+        } catch (URISyntaxException | MalformedURLException e) {
+            throw new ImageSourceException("Invalid path of mosaic image: " + path, e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create source of type '" + type + "'", e);
+        }
+    }
+
+    /**
+     * Places the images in the cells of a grid, row by row. Cells are as large as the largest image
+     * unless {@code cellWidth} and {@code cellHeight} are given.
+     */
+    private void arrange(Map<String, Object> grid) {
+        int columns = Math.max(1, number(grid, "columns"));
+        int gap = number(grid, "gap");
+        int cellWidth = grid.containsKey("cellWidth") ? number(grid, "cellWidth") : members.stream().mapToInt(member -> member.bounds.width).max().orElse(0);
+        int cellHeight = grid.containsKey("cellHeight") ? number(grid, "cellHeight") : members.stream().mapToInt(member -> member.bounds.height).max().orElse(0);
+        for (int i = 0; i < members.size(); i++) {
+            members.get(i).bounds.setLocation((i % columns) * (cellWidth + gap), (i / columns) * (cellHeight + gap));
+        }
+        rowSpan = Math.min(columns, members.size());
+    }
+
+    private static int number(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        return value instanceof Number number ? number.intValue() : value != null ? Integer.parseInt(value.toString()) : 0;
+    }
+
+    private void applyOptions(Member member) {
+        Map<String, String> options = new HashMap<>(memberOptions);
+        options.putAll(member.options);
+        if (!options.isEmpty()) {
+            member.source.setOptions(options);
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale) throws ImageSourceException {
+        return crop(x, y, width, height, scale, null, null);
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+        Rectangle region = new Rectangle(x, y, width, height);
+        List<Member> intersecting = new ArrayList<>();
+        for (Member member : members) {
+            if (member.bounds.intersects(region)) {
+                intersecting.add(member);
+            }
+        }
+        // A crop within a single image is passed on as it is
+        if (intersecting.size() == 1 && intersecting.get(0).bounds.contains(region)) {
+            Member member = intersecting.get(0);
+            acquire(member);
+            try {
+                return member.source.crop(x - member.bounds.x, y - member.bounds.y, width, height, scale, scaling, destination);
+            } finally {
+                done(member);
+            }
+        }
+
+        int outputWidth = (int) Math.ceil(width / scale);
+        int outputHeight = (int) Math.ceil(height / scale);
+        if ((long) outputWidth * outputHeight > STRIP_PIXELS) {
+            return StripImage.create(outputWidth, outputHeight, BufferedImage.TYPE_INT_RGB, STRIP_PIXELS / outputWidth,
+                    (stripY, rows) -> compose(intersecting, region, scale, scaling, new BufferedImage(outputWidth, rows, BufferedImage.TYPE_INT_RGB), stripY));
+        }
+        BufferedImage target = Resampler.fits(destination, outputWidth, outputHeight, BufferedImage.TYPE_INT_RGB)
+                ? destination : new BufferedImage(outputWidth, outputHeight, BufferedImage.TYPE_INT_RGB);
+        return compose(intersecting, region, scale, scaling, target, 0);
+    }
+
+    /**
+     * Draws the parts of the images in a region of the canvas onto the background. The target may only
+     * hold a strip of rows of the scaled region, starting at the given row, images outside of it are skipped.
+     */
+    private BufferedImage compose(List<Member> members, Rectangle region, double scale, ScalingTier scaling, BufferedImage target, int targetY) throws ImageSourceException {
+        // The rows of the region covered by the target, with a row more on both ends for rounding
+        int top = region.y + (int) Math.floor((targetY - 1) * scale);
+        int bottom = region.y + (int) Math.ceil((targetY + target.getHeight() + 1) * scale);
+        Rectangle band = region.intersection(new Rectangle(region.x, top, region.width, bottom - top));
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setColor(background);
+            g.fillRect(0, 0, target.getWidth(), target.getHeight());
+            for (Member member : members) {
+                if (!member.bounds.intersects(band)) {
+                    continue;
+                }
+                Rectangle part = member.bounds.intersection(band);
+                acquire(member);
+                try {
+                    BufferedImage image = member.source.crop(part.x - member.bounds.x, part.y - member.bounds.y, part.width, part.height, scale, scaling, null);
+                    g.drawImage(image, (int) Math.round((part.x - region.x) / scale), (int) Math.round((part.y - region.y) / scale) - targetY, null);
+                } finally {
+                    done(member);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * Marks an image as recently used by a crop, it's not released until it's handed back to {@link #done(Member)}.
+     * Waits while all images that can be kept decoded are used by other crops. A crop uses one image at a time,
+     * so they can't wait for each other.
+     */
+    private void acquire(Member member) throws ImageSourceException {
+        synchronized (decoded) {
+            while (member.users == 0 && inUse >= getCapacity()) {
+                try {
+                    decoded.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ImageSourceException("Interrupted while waiting for a mosaic image", e);
+                }
+            }
+            if (member.users == 0) {
+                inUse++;
+            }
+            decoded.remove(member);
+            decoded.add(member);
+            member.users++;
+            evict();
+        }
+    }
+
+    /**
+     * Hands back an image used by a crop.
+     */
+    private void done(Member member) {
+        synchronized (decoded) {
+            if (--member.users == 0) {
+                inUse--;
+                decoded.notifyAll();
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Releases the decoded pixels of the least recently used images above the limit, images used by a
+     * crop are skipped. Images are released while holding the lock, so a crop can't acquire an image
+     * that is being released.
+     */
+    private void evict() {
+        int capacity = getCapacity();
+        Iterator<Member> eldest = decoded.iterator();
+        while (decoded.size() > capacity && eldest.hasNext()) {
+            Member member = eldest.next();
+            if (member.users == 0) {
+                eldest.remove();
+                log.debug("Releasing mosaic image {}", member.source.getUrl());
+                member.source.release();
+            }
+        }
+    }
+
+    /**
+     * @return The number of images kept decoded at most: {@code cache} if set, otherwise two rows of images, at least {@link #DEFAULT_CACHE}.
+     */
+    int getCapacity() {
+        return cache != null ? Math.max(1, cache) : Math.max(DEFAULT_CACHE, 2 * rowSpan);
+    }
+
+    /**
+     * @return The number of images currently kept decoded.
+     */
+    int getDecodedCount() {
+        synchronized (decoded) {
+            return decoded.size();
+        }
+    }
+
+    @Override
+    public Map<String, Object> getMetadata() {
+        return new HashMap<>();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sums up the largest images that can be decoded at the same time, including the images in use, and
+     * the canvas of a crop composed of several images, which is at most a strip for large crops.
+     */
+    @Override
+    public long estimateDecodedSize() {
+        long canvas = 4 * Math.min((long) width * height, STRIP_PIXELS);
+        return canvas + members.stream()
+                .mapToLong(member -> member.source.estimateDecodedSize())
+                .boxed()
+                .sorted(Comparator.reverseOrder())
+                .limit(getCapacity())
+                .mapToLong(Long::longValue)
+                .sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Releases the decoded pixels of all images.
+     */
+    @Override
+    public void release() {
+        synchronized (decoded) {
+            decoded.clear();
+            members.forEach(member -> member.source.release());
+        }
+    }
+
+    /**
+     * An image of the mosaic.
+     */
+    private static final class Member {
+        /**
+         * The source of the image, only its header is read until pixels are needed.
+         */
+        private final ImageSource source;
+        /**
+         * The options of this image.
+         */
+        private final Map<String, String> options;
+        /**
+         * The position and size of the image on the canvas.
+         */
+        private final Rectangle bounds;
+        /**
+         * The number of crops using the image, guarded by the list of decoded images.
+         */
+        private int users = 0;
+
+        Member(ImageSource source, Map<String, String> options, Rectangle bounds) {
+            this.source = source;
+            this.options = options;
+            this.bounds = bounds;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import de.christianmahnke.iiif.fliiifenleger.TileScheduler;
+import de.christianmahnke.iiif.fliiifenleger.resample.Resampler;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies {@link PointOperation}s to the arrays backing images, row by row.
+ * <p>
+ * Images of type {@code TYPE_BYTE_GRAY}, {@code TYPE_3BYTE_BGR}, {@code TYPE_4BYTE_ABGR},
+ * {@code TYPE_INT_RGB}, {@code TYPE_INT_ARGB} and {@code TYPE_INT_BGR} are read directly, others
+ * are converted first. Each row is unpacked once, passed through the operation and packed into the
+ * result. Large images are split into bands of rows processed in parallel by the workers of the
+ * {@link TileScheduler} the caller runs on.
+ */
+final class PixelKernels {
+    /**
+     * Images with more pixels are processed in parallel.
+     */
+    static final int PARALLEL_PIXELS = 1 << 20;
+    private static final int BAND_PIXELS = 1 << 18;
+    private static final ThreadLocal<int[]> ROW = ThreadLocal.withInitial(() -> new int[0]);
+
+    private PixelKernels() {
+    }
+
+    /**
+     * @param image The image to process, it's not changed unless it's the destination.
+     * @param operation The operation to apply.
+     * @param destination An image to write the result to if it has the right size and type, may be
+     *                    the image itself, may be {@code null}.
+     * @return The result, the destination if it was used.
+     */
+    static BufferedImage apply(BufferedImage image, PointOperation operation, BufferedImage destination) {
+        BufferedImage source = toSupportedType(image);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int type = outputType(source.getType(), operation.output());
+        BufferedImage target = fits(destination, width, height, type) ? destination : new BufferedImage(width, height, type);
+        Rows in = new Rows(source);
+        Rows out = new Rows(target);
+
+        int bandRows = Math.max(1, BAND_PIXELS / width);
+        int bands = (height + bandRows - 1) / bandRows;
+        if ((long) width * height > PARALLEL_PIXELS && bands > 1) {
+            List<Runnable> parts = new ArrayList<>(bands);
+            for (int band = 0; band < bands; band++) {
+                int fromY = band * bandRows;
+                parts.add(() -> process(in, out, operation, fromY, Math.min(height, fromY + bandRows)));
+            }
+            TileScheduler.invokeAll(parts);
+        } else {
+            process(in, out, operation, 0, height);
+        }
+        return target;
+    }
+
+    private static void process(Rows in, Rows out, PointOperation operation, int fromY, int toY) {
+        int width = in.width;
+        int[] row = ROW.get();
+        if (row.length < width) {
+            row = new int[width];
+            ROW.set(row);
+        }
+        for (int y = fromY; y < toY; y++) {
+            in.read(y, row);
+            operation.apply(row, width);
+            out.write(y, row);
+        }
+    }
+
+    /**
+     * @return The type of the result of an operation on an image of the given type.
+     */
+    static int outputType(int type, PointOperation.Output output) {
+        return switch (output) {
+            case GRAY -> BufferedImage.TYPE_BYTE_GRAY;
+            case BINARY -> BufferedImage.TYPE_BYTE_BINARY;
+            case COLOR -> type == BufferedImage.TYPE_BYTE_GRAY ? BufferedImage.TYPE_3BYTE_BGR : type;
+            case KEEP -> type;
+        };
+    }
+
+    /**
+     * @return If the destination can take a result of the given size and type.
+     */
+    static boolean fits(BufferedImage destination, int width, int height, int type) {
+        // TYPE_BYTE_BINARY is also used for 2 and 4 bit images
+        return Resampler.fits(destination, width, height, type)
+                && (type != BufferedImage.TYPE_BYTE_BINARY || destination.getColorModel().getPixelSize() == 1);
+    }
+
+    /**
+     * @return The image if its type can be read directly, otherwise a copy in {@code TYPE_INT_RGB} or {@code TYPE_INT_ARGB}.
+     */
+    static BufferedImage toSupportedType(BufferedImage image) {
+        // Images not backed by an array, like views of a memory mapping, are copied
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        boolean array = buffer instanceof DataBufferByte || buffer instanceof DataBufferInt;
+        switch (array ? image.getType() : BufferedImage.TYPE_CUSTOM) {
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_BGR:
+                return image;
+            default:
+                BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+                        image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = converted.createGraphics();
+                try {
+                    g.drawImage(image, 0, 0, null);
+                } finally {
+                    g.dispose();
+                }
+                return converted;
+        }
+    }
+
+    /**
+     * Reads and writes rows of packed {@code 0xAARRGGBB} pixels from and to the array backing an
+     * image, also of sub images sharing the array of their parent.
+     */
+    static final class Rows {
+        private final int type;
+        private final int width;
+        private final byte[] bytes;
+        private final int[] ints;
+        private final int offset;
+        private final int stride;
+        private final int bitOffset;
+
+        Rows(BufferedImage image) {
+            Raster raster = image.getRaster();
+            int x = -raster.getSampleModelTranslateX();
+            int y = -raster.getSampleModelTranslateY();
+            this.type = image.getType();
+            this.width = image.getWidth();
+            if (raster.getSampleModel() instanceof MultiPixelPackedSampleModel sampleModel) {
+                DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+                this.bytes = buffer.getData();
+                this.ints = null;
+                this.stride = sampleModel.getScanlineStride();
+                this.offset = buffer.getOffset() + y * stride;
+                this.bitOffset = sampleModel.getDataBitOffset() + x;
+            } else if (raster.getDataBuffer() instanceof DataBufferByte buffer) {
+                ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                this.bytes = buffer.getData();
+                this.ints = null;
+                this.stride = sampleModel.getScanlineStride();
+                this.offset = buffer.getOffset() + y * stride + x * sampleModel.getPixelStride();
+                this.bitOffset = 0;
+            } else {
+                DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+                SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                this.bytes = null;
+                this.ints = buffer.getData();
+                this.stride = sampleModel.getScanlineStride();
+                this.offset = buffer.getOffset() + y * stride + x;
+                this.bitOffset = 0;
+            }
+        }
+
+        void read(int y, int[] row) {
+            int start = offset + y * stride;
+            switch (type) {
+                case BufferedImage.TYPE_BYTE_GRAY -> {
+                    for (int x = 0; x < width; x++) {
+                        int v = bytes[start + x] & 0xFF;
+                        row[x] = 0xFF000000 | v << 16 | v << 8 | v;
+                    }
+                }
+                case BufferedImage.TYPE_3BYTE_BGR -> {
+                    for (int x = 0, i = start; x < width; x++, i += 3) {
+                        row[x] = 0xFF000000 | (bytes[i + 2] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i] & 0xFF);
+                    }
+                }
+                case BufferedImage.TYPE_4BYTE_ABGR -> {
+                    for (int x = 0, i = start; x < width; x++, i += 4) {
+                        row[x] = (bytes[i] & 0xFF) << 24 | (bytes[i + 3] & 0xFF) << 16 | (bytes[i + 2] & 0xFF) << 8 | (bytes[i + 1] & 0xFF);
+                    }
+                }
+                case BufferedImage.TYPE_INT_RGB -> {
+                    for (int x = 0; x < width; x++) {
+                        row[x] = 0xFF000000 | ints[start + x];
+                    }
+                }
+                case BufferedImage.TYPE_INT_ARGB -> System.arraycopy(ints, start, row, 0, width);
+                case BufferedImage.TYPE_INT_BGR -> {
+                    for (int x = 0; x < width; x++) {
+                        int pixel = ints[start + x];
+                        row[x] = 0xFF000000 | (pixel & 0xFF) << 16 | (pixel & 0xFF00) | (pixel >> 16) & 0xFF;
+                    }
+                }
+                default -> throw new IllegalStateException("Unsupported image type " + type);
+            }
+        }
+
+        void write(int y, int[] row) {
+            int start = offset + y * stride;
+            switch (type) {
+                case BufferedImage.TYPE_BYTE_GRAY -> {
+                    for (int x = 0; x < width; x++) {
+                        bytes[start + x] = (byte) row[x];
+                    }
+                }
+                case BufferedImage.TYPE_BYTE_BINARY -> {
+                    for (int x = 0; x < width; x++) {
+                        int bit = bitOffset + x;
+                        int mask = 0x80 >> (bit & 7);
+                        if ((row[x] & 0x80) != 0) {
+                            bytes[start + (bit >> 3)] |= (byte) mask;
+                        } else {
+                            bytes[start + (bit >> 3)] &= (byte) ~mask;
+                        }
+                    }
+                }
+                case BufferedImage.TYPE_3BYTE_BGR -> {
+                    for (int x = 0, i = start; x < width; x++, i += 3) {
+                        int pixel = row[x];
+                        bytes[i] = (byte) pixel;
+                        bytes[i + 1] = (byte) (pixel >> 8);
+                        bytes[i + 2] = (byte) (pixel >> 16);
+                    }
+                }
+                case BufferedImage.TYPE_4BYTE_ABGR -> {
+                    for (int x = 0, i = start; x < width; x++, i += 4) {
+                        int pixel = row[x];
+                        bytes[i] = (byte) (pixel >>> 24);
+                        bytes[i + 1] = (byte) pixel;
+                        bytes[i + 2] = (byte) (pixel >> 8);
+                        bytes[i + 3] = (byte) (pixel >> 16);
+                    }
+                }
+                case BufferedImage.TYPE_INT_RGB -> {
+                    for (int x = 0; x < width; x++) {
+                        ints[start + x] = row[x] & 0xFFFFFF;
+                    }
+                }
+                case BufferedImage.TYPE_INT_ARGB -> System.arraycopy(row, 0, ints, start, width);
+                case BufferedImage.TYPE_INT_BGR -> {
+                    for (int x = 0; x < width; x++) {
+                        int pixel = row[x];
+                        ints[start + x] = (pixel & 0xFF) << 16 | (pixel & 0xFF00) | (pixel >> 16) & 0xFF;
+                    }
+                }
+                default -> throw new IllegalStateException("Unsupported image type " + type);
+            }
+        }
+    }
+}
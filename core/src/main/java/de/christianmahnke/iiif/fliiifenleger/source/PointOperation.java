@@ -0,0 +1,316 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+/**
+ * A color operation that maps every pixel independently of its neighbours. Operations work on rows
+ * of packed {@code 0xAARRGGBB} pixels, alpha is kept as it is unless the result is gray. They are
+ * applied by {@link PixelKernels}.
+ * <p>
+ * Operations following each other can be composed with {@link #andThen(PointOperation)}, lookup
+ * tables are merged into one where possible, so a chain of filters needs a single pass over the pixels.
+ */
+abstract class PointOperation {
+    /**
+     * The type of image an operation produces.
+     */
+    enum Output {
+        /**
+         * The type of the input is kept, gray pixels stay gray.
+         */
+        KEEP,
+        /**
+         * The type of the input is kept, but gray input needs a color image.
+         */
+        COLOR,
+        /**
+         * A gray image without alpha.
+         */
+        GRAY,
+        /**
+         * A black and white image.
+         */
+        BINARY
+    }
+
+    private static final int BIAS = 2;
+    private static final int[] LUMA_R = table(0.299);
+    private static final int[] LUMA_G = table(0.587);
+    private static final int[] LUMA_B = table(0.114);
+
+    /**
+     * Applies the operation to the first {@code length} pixels of a row.
+     */
+    abstract void apply(int[] row, int length);
+
+    /**
+     * @return The type of image the operation produces.
+     */
+    abstract Output output();
+
+    /**
+     * @param next The operation to apply to the result of this one.
+     * @return An operation with the same result as applying this one and then the next one.
+     */
+    PointOperation andThen(PointOperation next) {
+        if (next instanceof Sequence sequence) {
+            return andThen(sequence.first).andThen(sequence.second);
+        }
+        return new Sequence(this, next);
+    }
+
+    /**
+     * @return The output of two operations applied one after the other.
+     */
+    static Output combine(Output first, Output second) {
+        return switch (second) {
+            case GRAY, BINARY -> second;
+            // A lookup table may map black and white to other values
+            case KEEP -> first == Output.BINARY ? Output.GRAY : first;
+            case COLOR -> Output.COLOR;
+        };
+    }
+
+    /**
+     * @return A lookup table applying {@code first} and then {@code second}, {@code null} means identity.
+     */
+    private static int[] compose(int[] first, int[] second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        int[] lut = new int[256];
+        for (int v = 0; v < 256; v++) {
+            lut[v] = second[first[v]];
+        }
+        return lut;
+    }
+
+    /**
+     * @return Inverts the color channels.
+     */
+    static PointOperation invert() {
+        int[] lut = new int[256];
+        for (int v = 0; v < 256; v++) {
+            lut[v] = 255 - v;
+        }
+        return new ChannelLookup(lut);
+    }
+
+    /**
+     * @param levels The number of values per channel, at least two.
+     * @return Reduces each color channel to the given number of values.
+     */
+    static PointOperation posterize(int levels) {
+        int step = 255 / (Math.max(2, levels) - 1);
+        int[] lut = new int[256];
+        for (int v = 0; v < 256; v++) {
+            lut[v] = v / step * step;
+        }
+        return new ChannelLookup(lut);
+    }
+
+    /**
+     * @return Converts to the luma of the pixels (ITU-R BT.601 weights).
+     */
+    static PointOperation grayscale() {
+        return new Luma(null, Output.GRAY);
+    }
+
+    /**
+     * @param threshold Pixels with a luma above this are white, all others black.
+     * @return Converts to black and white.
+     */
+    static PointOperation threshold(int threshold) {
+        int[] lut = new int[256];
+        for (int v = 0; v < 256; v++) {
+            lut[v] = v > threshold ? 255 : 0;
+        }
+        return new Luma(lut, Output.BINARY);
+    }
+
+    /**
+     * @return Applies a sepia tone.
+     */
+    static PointOperation sepia() {
+        return new Matrix(new double[]{
+                0.393, 0.769, 0.189,
+                0.349, 0.686, 0.168,
+                0.272, 0.534, 0.131});
+    }
+
+    /**
+     * Fixed point table of a channel weight. Sums of three tables plus {@link #BIAS} are shifted right
+     * by 16, the bias makes up for the rounding of the tables, so results truncate like the exact
+     * products as long as the weights don't have more than three decimals.
+     */
+    private static int[] table(double weight) {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = (int) Math.round(weight * v * 65536);
+        }
+        return table;
+    }
+
+    /**
+     * The same lookup table for the red, green and blue channel.
+     */
+    static final class ChannelLookup extends PointOperation {
+        private final int[] lut;
+
+        ChannelLookup(int[] lut) {
+            this.lut = lut;
+        }
+
+        @Override
+        void apply(int[] row, int length) {
+            int[] lut = this.lut;
+            for (int i = 0; i < length; i++) {
+                int pixel = row[i];
+                row[i] = (pixel & 0xFF000000) | lut[(pixel >> 16) & 0xFF] << 16 | lut[(pixel >> 8) & 0xFF] << 8 | lut[pixel & 0xFF];
+            }
+        }
+
+        @Override
+        PointOperation andThen(PointOperation next) {
+            if (next instanceof ChannelLookup lookup) {
+                return new ChannelLookup(compose(lut, lookup.lut));
+            }
+            return super.andThen(next);
+        }
+
+        @Override
+        Output output() {
+            return Output.KEEP;
+        }
+    }
+
+    /**
+     * The luma of a pixel, optionally mapped by a lookup table, in all three channels. The result is
+     * opaque, as gray images don't have alpha.
+     */
+    static final class Luma extends PointOperation {
+        private final int[] lut;
+        private final Output output;
+
+        Luma(int[] lut, Output output) {
+            this.lut = lut;
+            this.output = output;
+        }
+
+        @Override
+        void apply(int[] row, int length) {
+            for (int i = 0; i < length; i++) {
+                int pixel = row[i];
+                int gray = (LUMA_R[(pixel >> 16) & 0xFF] + LUMA_G[(pixel >> 8) & 0xFF] + LUMA_B[pixel & 0xFF] + BIAS) >> 16;
+                if (lut != null) {
+                    gray = lut[gray];
+                }
+                row[i] = 0xFF000000 | gray << 16 | gray << 8 | gray;
+            }
+        }
+
+        @Override
+        PointOperation andThen(PointOperation next) {
+            // All channels are the same, a lookup table is applied to the gray value. The luma of a
+            // gray pixel is its value, as the weights add up to one.
+            if (next instanceof ChannelLookup lookup) {
+                return new Luma(compose(lut, lookup.lut), combine(output, lookup.output()));
+            }
+            if (next instanceof Luma luma) {
+                return new Luma(compose(lut, luma.lut), combine(output, luma.output));
+            }
+            return super.andThen(next);
+        }
+
+        @Override
+        Output output() {
+            return output;
+        }
+    }
+
+    /**
+     * A 3x3 color matrix, evaluated with one lookup table per coefficient.
+     */
+    static final class Matrix extends PointOperation {
+        private final int[][] tables = new int[9][];
+
+        /**
+         * @param matrix The coefficients, row by row, rows are the red, green and blue result.
+         */
+        Matrix(double[] matrix) {
+            for (int i = 0; i < 9; i++) {
+                tables[i] = table(matrix[i]);
+            }
+        }
+
+        @Override
+        void apply(int[] row, int length) {
+            int[] rr = tables[0], rg = tables[1], rb = tables[2];
+            int[] gr = tables[3], gg = tables[4], gb = tables[5];
+            int[] br = tables[6], bg = tables[7], bb = tables[8];
+            for (int i = 0; i < length; i++) {
+                int pixel = row[i];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+                int newR = Math.min(255, (rr[r] + rg[g] + rb[b] + BIAS) >> 16);
+                int newG = Math.min(255, (gr[r] + gg[g] + gb[b] + BIAS) >> 16);
+                int newB = Math.min(255, (br[r] + bg[g] + bb[b] + BIAS) >> 16);
+                row[i] = (pixel & 0xFF000000) | newR << 16 | newG << 8 | newB;
+            }
+        }
+
+        @Override
+        Output output() {
+            return Output.COLOR;
+        }
+    }
+
+    /**
+     * Two operations that can't be merged, applied one after the other to each row.
+     */
+    static final class Sequence extends PointOperation {
+        private final PointOperation first;
+        private final PointOperation second;
+
+        Sequence(PointOperation first, PointOperation second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        void apply(int[] row, int length) {
+            first.apply(row, length);
+            second.apply(row, length);
+        }
+
+        @Override
+        PointOperation andThen(PointOperation next) {
+            return new Sequence(first, second.andThen(next));
+        }
+
+        @Override
+        Output output() {
+            return combine(first.output(), second.output());
+        }
+    }
+}
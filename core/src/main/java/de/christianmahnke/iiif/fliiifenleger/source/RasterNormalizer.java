@@ -0,0 +1,137 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Converts decoded images once into a layout Java2D has fast paths for.
+ * <p>
+ * Decoders often return {@code TYPE_CUSTOM} images, 16 bit samples or ICC tagged color models, scaling
+ * and encoding those falls back to slow generic loops for every tile. Normalized images are sRGB (or gray)
+ * with 8 bit samples in one of {@code TYPE_3BYTE_BGR}, {@code TYPE_INT_RGB} or {@code TYPE_BYTE_GRAY},
+ * alpha is flattened onto white unless it should be kept, then {@code TYPE_INT_ARGB} is used.
+ * <p>
+ * Sources supporting normalization read these options:
+ * <ul>
+ *     <li>{@code normalize}: The target layout, one of {@code none} (the default), {@code auto} (gray
+ *     for gray images, BGR otherwise), {@code bgr}, {@code rgb} or {@code gray}</li>
+ *     <li>{@code keepAlpha}: Keep transparency instead of flattening it, for sinks writing formats with alpha</li>
+ * </ul>
+ */
+public class RasterNormalizer {
+    private static final Logger log = LoggerFactory.getLogger(RasterNormalizer.class);
+
+    /**
+     * The layouts images can be normalized to.
+     */
+    public enum Layout {
+        AUTO(BufferedImage.TYPE_CUSTOM),
+        BGR(BufferedImage.TYPE_3BYTE_BGR),
+        RGB(BufferedImage.TYPE_INT_RGB),
+        GRAY(BufferedImage.TYPE_BYTE_GRAY);
+
+        private final int type;
+
+        Layout(int type) {
+            this.type = type;
+        }
+    }
+
+    private final Layout layout;
+    private final boolean keepAlpha;
+
+    /**
+     * @param layout The target layout.
+     * @param keepAlpha If set, images with alpha are converted to {@code TYPE_INT_ARGB} instead of being flattened.
+     */
+    public RasterNormalizer(Layout layout, boolean keepAlpha) {
+        this.layout = layout;
+        this.keepAlpha = keepAlpha;
+    }
+
+    /**
+     * @param options The options of a source.
+     * @return The normalizer configured by the options or {@code null} if normalization isn't enabled.
+     */
+    public static RasterNormalizer fromOptions(Map<String, String> options) {
+        if (options == null) {
+            return null;
+        }
+        String value = options.getOrDefault("normalize", "none").toUpperCase(Locale.ROOT);
+        if ("NONE".equals(value) || "FALSE".equals(value)) {
+            return null;
+        }
+        Layout layout = "TRUE".equals(value) ? Layout.AUTO : Layout.valueOf(value);
+        return new RasterNormalizer(layout, Boolean.parseBoolean(options.get("keepAlpha")));
+    }
+
+    /**
+     * @param image The decoded image.
+     * @return The normalized image, the given one if it already has the target layout.
+     */
+    public BufferedImage normalize(BufferedImage image) {
+        ColorSpace colorSpace = image.getColorModel().getColorSpace();
+        boolean gray = colorSpace.getType() == ColorSpace.TYPE_GRAY;
+        boolean alpha = image.getColorModel().hasAlpha();
+        int target;
+        if (alpha && keepAlpha) {
+            target = BufferedImage.TYPE_INT_ARGB;
+        } else if (layout == Layout.AUTO) {
+            target = gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR;
+        } else {
+            target = layout.type;
+        }
+        if (image.getType() == target) {
+            return image;
+        }
+        log.debug("Normalizing image of type {} to type {}", image.getType(), target);
+        BufferedImage source = image;
+        if (!gray && !colorSpace.isCS_sRGB()) {
+            // ICC tagged or otherwise not sRGB, convert with the color management instead of the generic loops
+            int intermediate = alpha ? BufferedImage.TYPE_INT_ARGB : target == BufferedImage.TYPE_BYTE_GRAY ? BufferedImage.TYPE_3BYTE_BGR : target;
+            BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), intermediate);
+            new ColorConvertOp(null).filter(image, converted);
+            if (intermediate == target) {
+                return converted;
+            }
+            source = converted;
+        }
+        BufferedImage normalized = new BufferedImage(image.getWidth(), image.getHeight(), target);
+        Graphics2D g = normalized.createGraphics();
+        try {
+            if (alpha && target != BufferedImage.TYPE_INT_ARGB) {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            }
+            g.drawImage(source, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return normalized;
+    }
+}
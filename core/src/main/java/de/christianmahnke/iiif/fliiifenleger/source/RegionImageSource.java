@@ -0,0 +1,256 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import com.google.auto.service.AutoService;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An image source that never holds the whole image in memory. Every crop only decodes the requested
+ * region, scaled crops are decoded subsampled and downscaled afterwards. This works best for formats
+ * that can seek to a region, like tiled or stripped TIFF, other formats are still decoded sequentially
+ * up to the end of the region.
+ * <p>
+ * ImageIO readers aren't thread safe, so each concurrent crop borrows its own reader. Readers are kept
+ * open between crops and disposed by {@link #release()}, readers borrowed at that moment are disposed
+ * when they are handed back.
+ */
+@AutoService(ImageSource.class)
+@NoArgsConstructor
+public class RegionImageSource extends AbstractImageSource implements ImageSource {
+    private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String NAME = "region";
+
+    private final Queue<OpenReader> readers = new ConcurrentLinkedQueue<>();
+    /**
+     * Incremented by {@link #release()}, readers of an older generation aren't reused.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+    private ImageHeader header;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void load(URL url) throws ImageSourceException {
+        release();
+        this.url = url;
+        this.header = AbstractImageSource.probe(url);
+        if (this.header == null) {
+            throw new ImageSourceException("Could not read image file (unsupported format or file is corrupt): " + url);
+        }
+    }
+
+    /**
+     * @return The header of the image, containing dimensions, bands and color model.
+     */
+    public ImageHeader getHeader() {
+        if (header == null) {
+            throw new IllegalStateException("ImageSource not initilized.");
+        }
+        return header;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Regions are read on demand, no decoded image is kept, but the full size for the sizes of the image
+     * is decoded as a whole.
+     */
+    @Override
+    public long estimateDecodedSize() {
+        return getHeader().estimateDecodedSize();
+    }
+
+    @Override
+    public int getWidth() {
+        return getHeader().width();
+    }
+
+    @Override
+    public int getHeight() {
+        return getHeader().height();
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale) throws ImageSourceException {
+        return crop(x, y, width, height, scale, null, null);
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > getWidth() || y + height > getHeight()) {
+            throw new ImageSourceException(String.format("Crop region [x=%d, y=%d, width=%d, height=%d] is outside the image bounds [width=%d, height=%d].", x, y, width, height, getWidth(), getHeight()));
+        }
+        int newWidth = (int) Math.ceil(width / scale);
+        int newHeight = (int) Math.ceil(height / scale);
+        // Subsample to about twice the target size, the rest is done by a proper downscale
+        int subsampling = Math.max(1, (int) Math.floor(scale / 2));
+
+        BufferedImage region = readRegion(new Rectangle(x, y, width, height), subsampling);
+        if (region.getWidth() == newWidth && region.getHeight() == newHeight) {
+            return region;
+        }
+
+        return resize(region, newWidth, newHeight, scaling, destination);
+    }
+
+    private BufferedImage readRegion(Rectangle region, int subsampling) throws ImageSourceException {
+        OpenReader open = borrowReader();
+        boolean reusable = false;
+        try {
+            ImageReadParam param = open.reader().getDefaultReadParam();
+            param.setSourceRegion(region);
+            if (subsampling > 1) {
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+            BufferedImage image = open.reader().read(0, param);
+            reusable = true;
+            return image;
+        } catch (IOException e) {
+            throw new ImageSourceException("Could not read region " + region + " from: " + url, e);
+        } finally {
+            giveBack(open, reusable);
+        }
+    }
+
+    private OpenReader borrowReader() throws ImageSourceException {
+        OpenReader pooled;
+        while ((pooled = readers.poll()) != null) {
+            if (pooled.generation() == generation.get()) {
+                return pooled;
+            }
+            dispose(pooled);
+        }
+        if (this.url == null) {
+            throw new IllegalStateException("URL has not been set for RegionImageSource.");
+        }
+        int opened = generation.get();
+        InputStream is = null;
+        ImageInputStream iis = null;
+        ImageReader reader = null;
+        try {
+            if ("file".equals(url.getProtocol())) {
+                // Random access to local files, no need to cache the stream
+                iis = new FileImageInputStream(new File(url.toURI()));
+            } else {
+                is = AbstractImageSource.getInputStream(url);
+                iis = ImageIO.createImageInputStream(is);
+            }
+            Iterator<ImageReader> candidates = iis != null ? ImageIO.getImageReaders(iis) : null;
+            if (candidates == null || !candidates.hasNext()) {
+                throw new ImageSourceException("Could not read image file (unsupported format or file is corrupt): " + url);
+            }
+            reader = candidates.next();
+            reader.setInput(iis, false, true);
+            log.debug("Opened {} for {}", reader.getClass().getSimpleName(), url);
+            return new OpenReader(reader, iis, is, opened);
+        } catch (IOException | URISyntaxException e) {
+            throw new ImageSourceException("Could not open image: " + url, e);
+        } finally {
+            if (reader == null) {
+                close(iis, is);
+            }
+        }
+    }
+
+    /**
+     * Returns a reader to the pool. Readers that failed or were opened before the last {@link #release()}
+     * are disposed instead.
+     */
+    private void giveBack(OpenReader open, boolean reusable) {
+        if (!reusable || open.generation() != generation.get()) {
+            dispose(open);
+            return;
+        }
+        readers.offer(open);
+        // The source may have been released while the reader was offered
+        if (open.generation() != generation.get() && readers.remove(open)) {
+            dispose(open);
+        }
+    }
+
+    private void dispose(OpenReader open) {
+        open.reader().dispose();
+        close(open.stream(), open.source());
+    }
+
+    private void close(ImageInputStream iis, InputStream is) {
+        // Closing an ImageInputStream doesn't close the stream it caches
+        for (Closeable stream : new Closeable[]{iis, is}) {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    log.warn("Could not close stream for {}", url, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Disposes the cached readers, readers used by crops at the moment are disposed once they are
+     * done. New ones are opened if the source is used afterwards.
+     */
+    @Override
+    public void release() {
+        generation.incrementAndGet();
+        OpenReader open;
+        while ((open = readers.poll()) != null) {
+            dispose(open);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getMetadata() {
+        return readMetadata();
+    }
+
+    /**
+     * A reader with the streams it reads from and the generation of the source it was opened in.
+     */
+    private record OpenReader(ImageReader reader, ImageInputStream stream, InputStream source, int generation) {
+    }
+}
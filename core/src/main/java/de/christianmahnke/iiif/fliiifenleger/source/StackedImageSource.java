@@ -20,6 +20,7 @@ package de.christianmahnke.iiif.fliiifenleger.source;
 
 import com.google.auto.service.AutoService;
 import de.christianmahnke.iiif.fliiifenleger.Tiler;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import lombok.NoArgsConstructor;
@@ -86,10 +87,15 @@ public class StackedImageSource implements ImageSource {
 
     @Override
     public BufferedImage crop(int x, int y, int width, int height, double scale) throws ImageSourceException {
+        return crop(x, y, width, height, scale, null, null);
+    }
+
+    @Override
+    public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
         if (finalSource == null) {
             throw new IllegalStateException("StackedImageSource has not been configured. Call setOptions() first.");
         }
-        return finalSource.crop(x, y, width, height, scale);
+        return finalSource.crop(x, y, width, height, scale, scaling, destination);
     }
 
     @Override
@@ -98,6 +104,18 @@ public class StackedImageSource implements ImageSource {
         return finalSource != null ? finalSource.getMetadata() : new HashMap<>();
     }
 
+    @Override
+    public long estimateDecodedSize() {
+        return finalSource != null ? finalSource.estimateDecodedSize() : 0;
+    }
+
+    @Override
+    public void release() {
+        if (finalSource != null) {
+            finalSource.release();
+        }
+    }
+
     /**
      * Returns the final source in the processing chain.
      * This is package-private for testing purposes.
@@ -182,7 +200,7 @@ public class StackedImageSource implements ImageSource {
 
             // Subsequent sources are manipulators
             for (Map<String, Object> manipulatorConfig : sourceConfigs.subList(1, sourceConfigs.size())) {
-                this.finalSource = createManipulatorFromConfig(manipulatorConfig, this.finalSource);
+                this.finalSource = fuse(createManipulatorFromConfig(manipulatorConfig, this.finalSource));
             }
             finalizeConfiguration();
         } catch (IOException e) {
@@ -194,8 +212,26 @@ public class StackedImageSource implements ImageSource {
 
     private void chainManipulators(List<Map.Entry<String, String>> manipulatorDefs) throws Exception {
         for (Map.Entry<String, String> def : manipulatorDefs) {
-            this.finalSource = createManipulatorFromString(def.getValue(), this.finalSource);
+            this.finalSource = fuse(createManipulatorFromString(def.getValue(), this.finalSource));
+        }
+    }
+
+    /**
+     * Merges a filter working on single pixels into the filter it's chained to if that works on
+     * single pixels as well. Their operations are composed, so a crop passes the pixels once
+     * through all of them and no intermediate image is created. Other manipulators, like blur,
+     * stay separate stages.
+     *
+     * @param manipulator The manipulator, already loaded with the current final source.
+     * @return The new final source.
+     */
+    private ImageSource fuse(ManipulatorImageSource manipulator) {
+        if (manipulator instanceof FilterImageSource next && next.getPointOperation() != null
+                && next.getBaseSource() instanceof FilterImageSource previous && previous.getPointOperation() != null) {
+            log.debug("Fusing filter with the previous one");
+            return new FilterImageSource(previous.getPointOperation().andThen(next.getPointOperation()), previous.getBaseSource());
         }
+        return manipulator;
     }
 
     private ImageSource createSourceFromString(String sourceDef, Map<String, String> options) throws Exception {
@@ -0,0 +1,136 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Images whose rows are produced strip by strip when they are read, for crops too large to be held on
+ * the heap at once. Only the strip last read is kept, so they are meant for consumers reading rows in order,
+ * like the ImageIO writers encoding a size. They can't be written to.
+ */
+final class StripImage {
+    /**
+     * Produces the rows of a strip image.
+     */
+    @FunctionalInterface
+    interface Loader {
+        /**
+         * @param y The first row of the strip.
+         * @param rows The number of rows of the strip.
+         * @return An image of the width of the strip image with the given rows.
+         */
+        BufferedImage load(int y, int rows) throws ImageSourceException;
+    }
+
+    private StripImage() {
+    }
+
+    /**
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param type {@code TYPE_INT_RGB} or {@code TYPE_INT_ARGB}.
+     * @param stripRows The number of rows produced at once.
+     * @param loader Produces the strips.
+     * @return An image reading its pixels from the strips.
+     * @throws ImageSourceException If the image has more pixels than a raster can hold.
+     */
+    static BufferedImage create(int width, int height, int type, int stripRows, Loader loader) throws ImageSourceException {
+        if ((long) width * height > Integer.MAX_VALUE) {
+            throw new ImageSourceException(String.format("Image of %dx%d pixels is too large for a single raster.", width, height));
+        }
+        BufferedImage prototype = new BufferedImage(1, 1, type);
+        StripDataBuffer buffer = new StripDataBuffer(width, height, type, Math.max(1, Math.min(stripRows, height)), loader);
+        WritableRaster raster = Raster.createWritableRaster(prototype.getSampleModel().createCompatibleSampleModel(width, height), buffer, null);
+        return new BufferedImage(prototype.getColorModel(), raster, false, null);
+    }
+
+    /**
+     * The pixels of the strip last read.
+     */
+    private record Strip(int y, int rows, int[] pixels) {
+    }
+
+    /**
+     * A buffer of packed pixels, loading the strip containing a requested pixel if it isn't the current one.
+     */
+    private static final class StripDataBuffer extends DataBuffer {
+        private final int width;
+        private final int height;
+        private final int type;
+        private final int stripRows;
+        private final Loader loader;
+        private volatile Strip strip = new Strip(0, 0, new int[0]);
+
+        StripDataBuffer(int width, int height, int type, int stripRows, Loader loader) {
+            super(DataBuffer.TYPE_INT, width * height);
+            this.width = width;
+            this.height = height;
+            this.type = type;
+            this.stripRows = stripRows;
+            this.loader = loader;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            int row = i / width;
+            Strip current = strip;
+            if (row < current.y() || row >= current.y() + current.rows()) {
+                current = load(row - row % stripRows);
+            }
+            return current.pixels()[i - current.y() * width];
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            throw new UnsupportedOperationException("Strip images can't be written to");
+        }
+
+        private synchronized Strip load(int y) {
+            Strip current = strip;
+            if (current.y() == y && current.rows() > 0) {
+                return current;
+            }
+            int rows = Math.min(stripRows, height - y);
+            try {
+                BufferedImage image = loader.load(y, rows);
+                if (image.getType() != type || image.getWidth() != width || image.getHeight() != rows
+                        || image.getRaster().getSampleModelTranslateX() != 0 || image.getRaster().getSampleModelTranslateY() != 0) {
+                    BufferedImage converted = new BufferedImage(width, rows, type);
+                    Graphics2D g = converted.createGraphics();
+                    try {
+                        g.drawImage(image, 0, 0, null);
+                    } finally {
+                        g.dispose();
+                    }
+                    image = converted;
+                }
+                current = new Strip(y, rows, ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+            } catch (ImageSourceException e) {
+                throw new IllegalStateException("Could not read rows " + y + " to " + (y + rows) + " of image", e);
+            }
+            strip = current;
+            return current;
+        }
+    }
+}
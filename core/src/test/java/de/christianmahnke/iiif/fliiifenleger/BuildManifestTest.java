@@ -0,0 +1,96 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BuildManifestTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void manifest_shouldRoundTrip() throws Exception {
+        Path source = Files.writeString(tempDir.resolve("image.jpg"), "image");
+        Path imageDir = Files.createDirectories(tempDir.resolve("out"));
+        BuildManifest manifest = BuildManifest.create(source, Map.of("tileSize", "512"), BuildManifest.Mode.MTIME, "1.0");
+        assertNull(BuildManifest.read(imageDir), "There should be no manifest yet");
+
+        manifest.write(imageDir);
+        assertEquals(manifest, BuildManifest.read(imageDir));
+        assertNotEquals(manifest, BuildManifest.create(source, Map.of("tileSize", "1024"), BuildManifest.Mode.MTIME, "1.0"), "Parameters should be compared");
+        assertNotEquals(manifest, BuildManifest.create(source, Map.of("tileSize", "512"), BuildManifest.Mode.MTIME, "1.1"), "Versions should be compared");
+
+        Files.setLastModifiedTime(source, FileTime.fromMillis(0));
+        assertNotEquals(manifest, BuildManifest.create(source, Map.of("tileSize", "512"), BuildManifest.Mode.MTIME, "1.0"), "Modification times should be compared");
+    }
+
+    @Test
+    public void manifest_shouldCompareHashes() throws Exception {
+        Path source = Files.writeString(tempDir.resolve("image.jpg"), "image");
+        BuildManifest manifest = BuildManifest.create(source, Map.of(), BuildManifest.Mode.HASH, "1.0");
+        assertEquals(64, manifest.sha256().length());
+
+        Files.setLastModifiedTime(source, FileTime.fromMillis(0));
+        assertEquals(manifest, BuildManifest.create(source, Map.of(), BuildManifest.Mode.HASH, "1.0"), "Modification times should be ignored");
+        Files.writeString(source, "other");
+        assertNotEquals(manifest, BuildManifest.create(source, Map.of(), BuildManifest.Mode.HASH, "1.0"), "Content should be compared");
+    }
+
+    @Test
+    public void replace_shouldSwapDirectories() throws Exception {
+        Path imageDir = Files.createDirectories(tempDir.resolve("out"));
+        Files.writeString(imageDir.resolve("old.txt"), "old");
+        Files.writeString(imageDir.resolve("info.json"), "{}");
+        Path staging = BuildManifest.createStagingDirectory(imageDir);
+        Files.writeString(staging.resolve("new.txt"), "new");
+
+        BuildManifest.replace(staging, imageDir);
+        assertTrue(Files.exists(imageDir.resolve("new.txt")));
+        assertFalse(Files.exists(imageDir.resolve("old.txt")));
+        assertFalse(Files.exists(staging));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(1, files.count(), "Only the image directory should be left");
+        }
+    }
+
+    @Test
+    public void replace_shouldRefuseForeignDirectories() throws Exception {
+        Path imageDir = Files.createDirectories(tempDir.resolve("out"));
+        Files.writeString(imageDir.resolve("notes.txt"), "keep me");
+        Path staging = BuildManifest.createStagingDirectory(imageDir);
+        Files.writeString(staging.resolve("new.txt"), "new");
+
+        assertThrows(IOException.class, () -> BuildManifest.replace(staging, imageDir));
+        assertTrue(Files.exists(imageDir.resolve("notes.txt")), "Foreign directories should be kept");
+
+        // Empty directories can be replaced
+        Files.delete(imageDir.resolve("notes.txt"));
+        BuildManifest.replace(staging, imageDir);
+        assertTrue(Files.exists(imageDir.resolve("new.txt")));
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void acquire_shouldBlockWhileBudgetIsExceeded() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        MemoryBudget.Permit first = budget.acquire(60);
+        assertEquals(60, budget.getUsed());
+
+        CompletableFuture<MemoryBudget.Permit> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.acquire(60);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS));
+
+        first.close();
+        MemoryBudget.Permit permit = second.get(10, TimeUnit.SECONDS);
+        try {
+            assertEquals(60, budget.getUsed());
+        } finally {
+            permit.close();
+        }
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void acquire_shouldAdmitOversizedImageWhenIdle() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        MemoryBudget.Permit permit = budget.acquire(1000);
+        try {
+            assertEquals(1000, budget.getUsed());
+        } finally {
+            permit.close();
+        }
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void parseSize_shouldHandleSuffixes() {
+        assertEquals(512, MemoryBudget.parseSize("512"));
+        assertEquals(512L << 20, MemoryBudget.parseSize("512m"));
+        assertEquals(4L << 30, MemoryBudget.parseSize("4G"));
+        assertEquals(3L << 29, MemoryBudget.parseSize("1.5gb"));
+        assertThrows(IllegalArgumentException.class, () -> MemoryBudget.parseSize("lots"));
+    }
+
+    @Test
+    public void defaultCapacity_shouldBePositive() {
+        assertTrue(MemoryBudget.defaultCapacity() > 0);
+        assertTrue(MemoryBudget.defaultCapacity() <= Runtime.getRuntime().maxMemory());
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TilePlanTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final List<ImageInfo.Size> sizes = List.of(new ImageInfo.Size(4615, 3440), new ImageInfo.Size(2307, 1720), new ImageInfo.Size(1153, 860));
+
+    @Test
+    public void plan_shouldContainAllTiles() {
+        TilePlan plan = new TilePlan(4615, 3440, 1024, 1024, List.of(1, 2, 4), sizes, ImageInfo.IIIFVersion.V2);
+        assertEquals(3, plan.getLevelCount());
+        assertEquals(5 * 4 + 3 * 2 + 2 * 1, plan.getTileCount());
+
+        int last = plan.getTileIndex(0, 3, 4);
+        assertEquals(4096, plan.getTileX(last));
+        assertEquals(3072, plan.getTileY(last));
+        assertEquals(519, plan.getTileWidth(last));
+        assertEquals(368, plan.getTileHeight(last));
+        assertEquals("4096,3072,519,368/519/0/default.jpg", plan.getTilePath(last, "jpg"));
+
+        int scaled = plan.getTileIndex(2, 0, 1);
+        assertEquals(4, plan.getTileScale(scaled));
+        assertEquals(860, plan.getOutputHeight(scaled));
+        assertEquals("4096,0,519,3440/130/0/default.jpg", plan.getTilePath(scaled, "jpg"));
+    }
+
+    @Test
+    public void plan_shouldUseVersionSpecificPaths() {
+        TilePlan v2 = new TilePlan(4615, 3440, 1024, 1024, List.of(1, 2), sizes, ImageInfo.IIIFVersion.V2);
+        TilePlan v3 = new TilePlan(4615, 3440, 1024, 1024, List.of(1, 2), sizes, ImageInfo.IIIFVersion.V3);
+        assertEquals("full/2307,/0/default.png", v2.getSizePath(1, "png"));
+        assertEquals("full/2307,1720/0/default.png", v3.getSizePath(1, "png"));
+        assertEquals("full/full/0/default.png", v2.getFullPath("png"));
+        assertEquals("full/max/0/default.png", v3.getFullPath("png"));
+        assertTrue(v3.isFullSize(0));
+        assertFalse(v3.isFullSize(1));
+        assertEquals("0,0,2048,2048/1024,1024/0/default.png", v3.getTilePath(v3.getTileIndex(1, 0, 0), "png"));
+    }
+
+    @Test
+    public void createDirectories_shouldCreateEveryOutputDirectory() throws Exception {
+        TilePlan plan = new TilePlan(4615, 3440, 1024, 1024, List.of(1, 2, 4), sizes, ImageInfo.IIIFVersion.V3);
+        plan.createDirectories(tempDir);
+        // Existing directories are fine
+        plan.createDirectories(tempDir);
+
+        for (int tile = 0; tile < plan.getTileCount(); tile++) {
+            assertTrue(Files.isDirectory(tempDir.resolve(plan.getTilePath(tile, "jpg")).getParent()));
+        }
+        for (int size = 0; size < plan.getSizeCount(); size++) {
+            assertTrue(Files.isDirectory(tempDir.resolve(plan.getSizePath(size, "jpg")).getParent()));
+        }
+        assertTrue(Files.isDirectory(tempDir.resolve(plan.getFullPath("jpg")).getParent()));
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.stream.ImageOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TileSchedulerTest {
+
+    private TileScheduler scheduler;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = new TileScheduler(1, 2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    public void submit_shouldRunTasksOfOneImageOnAllWorkers() throws Exception {
+        try (TileScheduler parallel = new TileScheduler(4, 1)) {
+            // Every task waits until all four run at the same time
+            CountDownLatch started = new CountDownLatch(4);
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(() -> {
+                    started.countDown();
+                    try {
+                        assertTrue(started.await(10, TimeUnit.SECONDS), "Tasks of one image should run concurrently");
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            for (Future<?> future : parallel.submit(tasks)) {
+                future.get();
+            }
+        }
+    }
+
+    @Test
+    public void submit_shouldInterleaveImages() throws Exception {
+        // Block the single worker until both images have submitted their tasks
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Future<?>> blocker = scheduler.submit(List.of(() -> {
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Runnable> first = new ArrayList<>();
+        List<Runnable> second = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int task = i;
+            first.add(() -> order.add("a" + task));
+            second.add(() -> order.add("b" + task));
+        }
+        List<Future<?>> futures = new ArrayList<>(scheduler.submit(first));
+        futures.addAll(scheduler.submit(second));
+        latch.countDown();
+
+        blocker.get(0).get();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("a0", "b0", "a1", "b1", "a2", "b2", "a3", "b3"), order);
+    }
+
+    @Test
+    public void submit_shouldPropagateExceptions() {
+        List<Future<?>> futures = scheduler.submit(List.of(() -> {
+            throw new IllegalStateException("Broken tile");
+        }));
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> futures.get(0).get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, ex.getCause());
+    }
+
+    @Test
+    public void invokeAll_shouldRunPartsOnThePoolOfTheCaller() throws Exception {
+        try (TileScheduler parallel = new TileScheduler(2, 1)) {
+            List<String> threads = Collections.synchronizedList(new ArrayList<>());
+            List<Runnable> parts = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                parts.add(() -> threads.add(Thread.currentThread().getName()));
+            }
+
+            TileScheduler.invokeAll(parts);
+            assertEquals(Collections.nCopies(8, Thread.currentThread().getName()), threads, "Parts should run on the calling thread outside of a scheduler");
+
+            threads.clear();
+            parallel.getIoPool().submit(() -> TileScheduler.invokeAll(parts)).get(10, TimeUnit.SECONDS);
+            assertEquals(8, threads.size());
+            threads.forEach(thread -> assertTrue(thread.startsWith("fliiifenleger-cpu-"), "Parts of I/O threads should run on CPU workers, got " + thread));
+
+            threads.clear();
+            parallel.submit(List.of(() -> TileScheduler.invokeAll(parts))).get(0).get(10, TimeUnit.SECONDS);
+            assertEquals(8, threads.size());
+            threads.forEach(thread -> assertTrue(thread.startsWith("fliiifenleger-cpu-"), "Parts of workers should stay on CPU workers, got " + thread));
+        }
+    }
+
+    @Test
+    public void invokeAll_shouldPropagateExceptions() throws Exception {
+        Future<?> future = scheduler.getIoPool().submit(() -> TileScheduler.invokeAll(List.of(() -> {
+            throw new IllegalStateException("Broken band");
+        })));
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertEquals("Broken band", ex.getCause().getMessage());
+    }
+
+    @Test
+    public void constructor_shouldRejectInvalidThreadCounts() {
+        assertThrows(IllegalArgumentException.class, () -> new TileScheduler(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TileScheduler(1, 1, 0));
+    }
+
+    @Test
+    public void writer_shouldBoundPendingWrites() throws Exception {
+        try (TileScheduler bounded = new TileScheduler(1, 1, 1)) {
+            TileWriter writer = bounded.createWriter();
+            CountDownLatch latch = new CountDownLatch(1);
+            writer.submit(Path.of("slow"), () -> {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            CountDownLatch queued = new CountDownLatch(1);
+            Thread producer = new Thread(() -> {
+                try {
+                    writer.submit(Path.of("fast"), () -> {});
+                    queued.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            producer.start();
+            assertFalse(queued.await(200, TimeUnit.MILLISECONDS), "Second write should wait for the first one");
+            latch.countDown();
+            assertTrue(queued.await(10, TimeUnit.SECONDS), "Second write should be queued once the first one is done");
+            writer.await();
+        }
+    }
+
+    @Test
+    public void writer_shouldPropagateFailures() throws Exception {
+        TileWriter writer = scheduler.createWriter();
+        writer.submit(Path.of("broken"), () -> {
+            throw new IOException("Disk full");
+        });
+        TilerException ex = assertThrows(TilerException.class, writer::await);
+        assertInstanceOf(IOException.class, ex.getCause());
+    }
+
+    @Test
+    public void writeFile_shouldWriteBufferAndChecksum(@TempDir Path dir) throws Exception {
+        byte[] content = new byte[TileBuffer.INITIAL_CAPACITY * 3 + 17];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        TileBuffer buffer = TileBuffer.acquire();
+        buffer.write(content, 0, 10);
+        buffer.write(content, 10, content.length - 10);
+        assertEquals(content.length, buffer.size());
+
+        Path target = dir.resolve("tile.jpg");
+        Files.write(target, new byte[content.length * 2]);
+        long checksum = TileWriter.writeFile(target, buffer);
+        assertArrayEquals(content, Files.readAllBytes(target), "Existing files should be replaced");
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        assertEquals(crc.getValue(), checksum);
+        buffer.release();
+    }
+
+    @Test
+    public void tileBuffer_shouldBeEmptyWhenReused() {
+        TileBuffer buffer = TileBuffer.acquire();
+        buffer.write(new byte[100], 0, 100);
+        buffer.release();
+        TileBuffer reused = TileBuffer.acquire();
+        assertEquals(0, reused.size());
+        reused.release();
+    }
+
+    @Test
+    public void tileBuffer_imageOutputStreamShouldWriteInPlace() throws Exception {
+        TileBuffer buffer = TileBuffer.acquire();
+        byte[] content = new byte[TileBuffer.INITIAL_CAPACITY + 5];
+        try (ImageOutputStream stream = buffer.imageOutputStream()) {
+            stream.write(content);
+            // Writers patch lengths after writing the data
+            stream.seek(2);
+            stream.writeShort(0x0102);
+            stream.seek(stream.length());
+            stream.write(7);
+        }
+        assertEquals(content.length + 1, buffer.size());
+        ByteBuffer bytes = buffer.toByteBuffer();
+        assertEquals(1, bytes.get(2));
+        assertEquals(2, bytes.get(3));
+        assertEquals(7, bytes.get(content.length));
+        buffer.release();
+    }
+}
@@ -18,6 +18,7 @@
 
 package de.christianmahnke.iiif.fliiifenleger;
 
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
 import de.christianmahnke.iiif.fliiifenleger.sink.DefaultTileSink;
 import de.christianmahnke.iiif.fliiifenleger.source.DefaultImageSource;
 import de.christianmahnke.iiif.fliiifenleger.source.ImageSource;
@@ -29,12 +30,18 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.awt.GraphicsEnvironment;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -109,6 +116,204 @@ public class TilerTest {
         assertTrue(Files.exists(scaledTilePath), "A scaled tile should exist");
     }
 
+    @Test
+    public void testFullSizeEncodedOnce() throws Exception {
+        ImageInfo.IIIFVersion version = ImageInfo.IIIFVersion.V3;
+        ImageInfo imageInfo = new ImageInfo(imageSource, 1024, 1024, 2, "http://localhost/iiif/", version);
+
+        Path copyDir = tempDir.resolve("copy");
+        tiler.createImage(imageInfo, copyDir, version, new DefaultTileSink());
+        assertArrayEquals(Files.readAllBytes(copyDir.resolve("full/4615,3440/0/default.jpg")),
+                Files.readAllBytes(copyDir.resolve("full/max/0/default.jpg")), "Full size should be the same encoding");
+
+        DefaultTileSink linkingSink = new DefaultTileSink();
+        linkingSink.setOptions(Map.of("duplicates", "link"));
+        Path linkDir = tempDir.resolve("link");
+        tiler.createImage(imageInfo, linkDir, version, linkingSink);
+        assertTrue(Files.isSameFile(linkDir.resolve("full/4615,3440/0/default.jpg"), linkDir.resolve("full/max/0/default.jpg")),
+                "Full size should be linked");
+    }
+
+    @Test
+    public void testLowResolutionScaling() throws Exception {
+        Map<Double, String> tiers = new ConcurrentHashMap<>();
+        DefaultImageSource recording = new DefaultImageSource() {
+            @Override
+            public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+                tiers.put(scale, String.valueOf(scaling));
+                return super.crop(x, y, width, height, scale, scaling, destination);
+            }
+        };
+        recording.load(imageSource.getUrl());
+        ImageInfo.IIIFVersion version = ImageInfo.IIIFVersion.V3;
+        ImageInfo imageInfo = new ImageInfo(recording, 1024, 1024, 3, "http://localhost/iiif/", version);
+
+        tiler.setLowResolutionScaling(ScalingTier.FAST);
+        tiler.setLowResolutionScale(4);
+        tiler.createImage(imageInfo, tempDir, version, new DefaultTileSink());
+        assertEquals("null", tiers.get(1.0), "Full resolution tiles should use the tier of the source");
+        assertEquals("null", tiers.get(2.0));
+        assertEquals("FAST", tiers.get(4.0), "Low resolution tiles should use the cheaper tier");
+        assertTrue(Files.exists(tempDir.resolve("0,0,4096,3440/1024,860/0/default.jpg")));
+    }
+
+    @Test
+    public void testPooledTilesMatchCrops() throws Exception {
+        ImageInfo.IIIFVersion version = ImageInfo.IIIFVersion.V3;
+        ImageInfo imageInfo = new ImageInfo(imageSource, 1024, 1024, 3, "http://localhost/iiif/", version);
+        tiler.createImage(imageInfo, tempDir, version, new DefaultTileSink());
+
+        // The last tile of a row and column is smaller, it must not contain parts of a previous tile
+        for (String tile : List.of("2048,2048,2048,1392/1024,696", "4096,2048,519,1392/260,696", "0,0,2048,2048/1024,1024")) {
+            String[] parts = tile.split("[,/]");
+            BufferedImage expected = imageSource.crop(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), 2.0);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            new DefaultTileSink().saveTile(encoded, expected);
+            assertArrayEquals(encoded.toByteArray(), Files.readAllBytes(tempDir.resolve(tile + "/0/default.jpg")), "Tile " + tile + " should match its crop");
+        }
+    }
+
+    @Test
+    public void testTileRastersReused() {
+        TileRasters rasters = TileRasters.get();
+        assertSame(rasters, TileRasters.get());
+        BufferedImage result = new BufferedImage(8, 8, BufferedImage.TYPE_3BYTE_BGR);
+        rasters.update(result);
+        BufferedImage destination = rasters.destination(512, 256);
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, destination.getType());
+        assertSame(destination, rasters.destination(512, 256), "Destinations should be reused");
+        assertNotSame(destination, rasters.destination(256, 256));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        ImageInfo.IIIFVersion version = ImageInfo.IIIFVersion.V3;
+        ImageInfo imageInfo = new ImageInfo(imageSource, 1024, 1024, 3, "http://localhost/iiif/", version);
+        tiler.createImage(imageInfo, tempDir, version, new DefaultTileSink());
+        assertFalse(Files.exists(tempDir.resolve(TileJournal.FILE_NAME)), "Journal should only be written when resuming");
+        Files.delete(tempDir.resolve("info.json"));
+
+        // Interrupted once all tiles are written, before the info.json is
+        DefaultImageSource interrupted = new DefaultImageSource() {
+            @Override
+            public void release() {
+                throw new IllegalStateException("Interrupted");
+            }
+        };
+        interrupted.load(imageSource.getUrl());
+        Tiler resuming = new Tiler();
+        resuming.setResume(true);
+        ImageInfo interruptedInfo = new ImageInfo(interrupted, 1024, 1024, 3, "http://localhost/iiif/", version);
+        assertThrows(IllegalStateException.class, () -> resuming.createImage(interruptedInfo, tempDir, version, new DefaultTileSink()));
+        assertTrue(Files.exists(tempDir.resolve(TileJournal.FILE_NAME)), "Journal should be written");
+        assertFalse(Files.exists(tempDir.resolve("info.json")));
+
+        Path kept = tempDir.resolve("0,0,1024,1024/1024,1024/0/default.jpg");
+        Path deleted = tempDir.resolve("1024,0,1024,1024/1024,1024/0/default.jpg");
+        Path truncated = tempDir.resolve("0,0,4096,3440/1024,860/0/default.jpg");
+        FileTime old = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(kept, old);
+        Files.delete(deleted);
+        long size = Files.size(truncated);
+        Files.write(truncated, new byte[10]);
+
+        resuming.createImage(imageInfo, tempDir, version, new DefaultTileSink());
+        assertEquals(old, Files.getLastModifiedTime(kept), "Complete tiles should be skipped");
+        assertTrue(Files.exists(deleted), "Missing tiles should be generated");
+        assertEquals(size, Files.size(truncated), "Truncated tiles should be generated again");
+        assertTrue(Files.exists(tempDir.resolve("info.json")), "info.json should be written");
+        assertFalse(Files.exists(tempDir.resolve(TileJournal.FILE_NAME)), "Journal should be deleted once the image is complete");
+
+        // A complete image isn't touched at all
+        Files.setLastModifiedTime(deleted, old);
+        resuming.createImage(imageInfo, tempDir, version, new DefaultTileSink());
+        assertEquals(old, Files.getLastModifiedTime(deleted), "Complete images should be skipped");
+
+        // Unless files are missing
+        Files.delete(deleted);
+        resuming.createImage(imageInfo, tempDir, version, new DefaultTileSink());
+        assertTrue(Files.exists(deleted), "Missing tiles of complete images should be generated");
+    }
+
+    @Test
+    public void testDirtyRegions() throws Exception {
+        BufferedImage master = new BufferedImage(2048, 1536, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < master.getHeight(); y++) {
+            for (int x = 0; x < master.getWidth(); x++) {
+                master.setRGB(x, y, (x & 0xff) << 16 | (y & 0xff) << 8 | (x + y) & 0xff);
+            }
+        }
+        Path masterFile = tempDir.resolve("master.png");
+        ImageIO.write(master, "png", masterFile.toFile());
+        Path outputDir = tempDir.resolve("out");
+
+        Tiler retiler = new Tiler();
+        retiler.setDirtyRegions(true);
+        ImageInfo.IIIFVersion version = ImageInfo.IIIFVersion.V2;
+        DefaultImageSource source = new DefaultImageSource();
+        source.load(masterFile.toUri().toURL());
+        ImageInfo imageInfo = new ImageInfo(source, 512, 512, 3, "http://localhost/iiif/", version);
+        retiler.createImage(imageInfo, outputDir, version, new DefaultTileSink());
+
+        TilePlan plan = new TilePlan(imageInfo, version);
+        FileTime old = FileTime.fromMillis(0);
+        for (String path : plan.getPaths("jpg")) {
+            Files.setLastModifiedTime(outputDir.resolve(path), old);
+        }
+
+        // Edit a small region in the second full resolution tile of the second row
+        for (int y = 600; y < 620; y++) {
+            for (int x = 600; x < 620; x++) {
+                master.setRGB(x, y, 0xffffff);
+            }
+        }
+        ImageIO.write(master, "png", masterFile.toFile());
+        source = new DefaultImageSource();
+        source.load(masterFile.toUri().toURL());
+        imageInfo = new ImageInfo(source, 512, 512, 3, "http://localhost/iiif/", version);
+        retiler.createImage(imageInfo, outputDir, version, new DefaultTileSink());
+
+        List<String> expected = List.of(plan.getTilePath(plan.getTileIndex(0, 1, 1), "jpg"),
+                plan.getTilePath(plan.getTileIndex(1, 0, 0), "jpg"),
+                plan.getTilePath(plan.getTileIndex(2, 0, 0), "jpg"));
+        for (String path : plan.getPaths("jpg")) {
+            boolean written = !old.equals(Files.getLastModifiedTime(outputDir.resolve(path)));
+            boolean size = path.startsWith("full/");
+            assertEquals(size || expected.contains(path), written, "Unexpected state of " + path);
+        }
+    }
+
+    @Test
+    public void testDirtyRegionsWithChangedFormat() throws Exception {
+        BufferedImage master = new BufferedImage(1200, 900, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < master.getHeight(); y++) {
+            for (int x = 0; x < master.getWidth(); x++) {
+                master.setRGB(x, y, (x & 0xff) << 16 | (y & 0xff) << 8);
+            }
+        }
+        Path masterFile = tempDir.resolve("master.png");
+        ImageIO.write(master, "png", masterFile.toFile());
+        Path outputDir = tempDir.resolve("out");
+
+        Tiler retiler = new Tiler();
+        retiler.setDirtyRegions(true);
+        ImageInfo.IIIFVersion version = ImageInfo.IIIFVersion.V2;
+        DefaultImageSource source = new DefaultImageSource();
+        source.load(masterFile.toUri().toURL());
+        ImageInfo imageInfo = new ImageInfo(source, 512, 512, 2, "http://localhost/iiif/", version);
+        retiler.createImage(imageInfo, outputDir, version, new DefaultTileSink());
+
+        // The source is unchanged, but the tiles of the new format don't exist yet
+        DefaultTileSink png = new DefaultTileSink();
+        png.setOptions(Map.of("format", "png"));
+        retiler.createImage(imageInfo, outputDir, version, png);
+
+        TilePlan plan = new TilePlan(imageInfo, version);
+        for (String path : plan.getPaths("png")) {
+            assertTrue(Files.exists(outputDir.resolve(path)), "Missing " + path);
+        }
+    }
+
     @Test
     public void testCreateImageV3() throws Exception {
         int tileSize = 1024;
@@ -134,4 +339,34 @@ public class TilerTest {
         Path scaledTilePath = imageOutputDir.resolve("2048,1024,1024,1024/1024,1024/0/default.jpg");
         assertTrue(Files.exists(scaledTilePath), "A scaled tile should exist for V3");
     }
+
+    @Test
+    public void testCreateImagePyramid() throws Exception {
+        int tileSize = 512;
+        int zoomLevels = 5;
+        String identifier = "http://localhost/iiif/";
+        ImageInfo.IIIFVersion version = ImageInfo.IIIFVersion.V3;
+
+        ImageInfo imageInfo = new ImageInfo(imageSource, tileSize, tileSize, zoomLevels, identifier, version);
+        DefaultTileSink sink = new DefaultTileSink();
+
+        Path classicDir = tiler.createImage(imageInfo, tempDir.resolve("classic"), version, sink);
+        tiler.setPyramid(true);
+        Path pyramidDir = tiler.createImage(imageInfo, tempDir.resolve("pyramid"), version, sink);
+
+        // Both modes must produce the same set of files
+        List<Path> classicFiles;
+        List<Path> pyramidFiles;
+        try (var classic = Files.walk(classicDir); var pyramid = Files.walk(pyramidDir)) {
+            classicFiles = classic.map(classicDir::relativize).sorted().toList();
+            pyramidFiles = pyramid.map(pyramidDir::relativize).sorted().toList();
+        }
+        assertEquals(classicFiles, pyramidFiles, "Pyramid mode should generate the same tiles and sizes");
+
+        // Tiles derived from a reduced level need to have the dimensions of the requested size
+        BufferedImage scaledTile = ImageIO.read(pyramidDir.resolve("4096,0,519,3440/65,430/0/default.jpg").toFile());
+        assertNotNull(scaledTile, "A tile from a reduced level should exist");
+        assertEquals(65, scaledTile.getWidth());
+        assertEquals(430, scaledTile.getHeight());
+    }
 }
@@ -0,0 +1,65 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.resample;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScalingTierTest {
+
+    private static BufferedImage stripes() {
+        // Alternating black and white columns, a single sampling step picks one of them
+        BufferedImage image = new BufferedImage(1024, 64, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x += 2) {
+                image.getRaster().setSample(x, y, 0, 255);
+            }
+        }
+        return image;
+    }
+
+    @ParameterizedTest
+    @EnumSource(ScalingTier.class)
+    public void createResampler_shouldScaleToTargetSize(ScalingTier tier) {
+        BufferedImage resized = tier.createResampler(ResamplingFilter.LANCZOS3).resize(stripes(), 61, 5);
+        assertEquals(61, resized.getWidth());
+        assertEquals(5, resized.getHeight());
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, resized.getType());
+    }
+
+    @Test
+    public void progressive_shouldAverageFineDetail() {
+        BufferedImage resized = ScalingTier.PROGRESSIVE.createResampler(ResamplingFilter.LANCZOS3).resize(stripes(), 64, 4);
+        for (int x = 0; x < resized.getWidth(); x++) {
+            int value = resized.getRaster().getSample(x, 2, 0);
+            assertTrue(Math.abs(value - 128) < 8, "Stripes should average to gray, got " + value + " at " + x);
+        }
+    }
+
+    @Test
+    public void parse_shouldIgnoreCase() {
+        assertEquals(ScalingTier.PROGRESSIVE, ScalingTier.parse("progressive"));
+        assertThrows(IllegalArgumentException.class, () -> ScalingTier.parse("best"));
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.resample;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Measures the time the separable resampler takes to reduce a tile sized image by the factors of the
+ * levels of a pyramid, and the time of Java2D bilinear scaling for comparison. Not run as a test, start it
+ * with {@code java -cp ... SeparableResamplerBenchmark [size] [iterations]}.
+ */
+public class SeparableResamplerBenchmark {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        BufferedImage source = new BufferedImage(size, size, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(1);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                source.setRGB(x, y, random.nextInt());
+            }
+        }
+        Resampler[] resamplers = {
+                new SeparableResampler(ResamplingFilter.LANCZOS3),
+                new SeparableResampler(ResamplingFilter.BICUBIC),
+                new SeparableResampler(ResamplingFilter.AREA),
+                ScalingTier.FAST.createResampler(ResamplingFilter.LANCZOS3)
+        };
+        for (Resampler resampler : resamplers) {
+            for (int factor = 2; factor <= 16; factor *= 2) {
+                int target = size / factor;
+                // Warm up the JIT compiler first
+                for (int i = 0; i < iterations; i++) {
+                    resampler.resize(source, target, target, null);
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    resampler.resize(source, target, target, null);
+                }
+                System.out.printf("%-40s %5d -> %5d: %8.2f ms%n", name(resampler), size, target, (System.nanoTime() - start) / 1e6 / iterations);
+            }
+        }
+    }
+
+    private static String name(Resampler resampler) {
+        return resampler instanceof SeparableResampler separable ? "separable " + separable.getFilter() : resampler.getClass().getSimpleName();
+    }
+}
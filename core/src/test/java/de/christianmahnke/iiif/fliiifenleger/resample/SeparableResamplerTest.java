@@ -0,0 +1,161 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.christianmahnke.iiif.fliiifenleger.resample;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SeparableResamplerTest {
+
+    private static final int[] TYPES = {
+            BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_ARGB
+    };
+
+    private static BufferedImage filled(int type, int width, int height, Color color) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(color);
+            g.fillRect(0, 0, width, height);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    @ParameterizedTest
+    @EnumSource(ResamplingFilter.class)
+    public void resize_shouldKeepUniformColors(ResamplingFilter filter) {
+        SeparableResampler resampler = new SeparableResampler(filter);
+        for (int type : TYPES) {
+            BufferedImage image = filled(type, 301, 97, new Color(200, 200, 200));
+            int expected = image.getRGB(0, 0);
+            for (int[] size : new int[][]{{100, 30}, {37, 97}, {602, 194}}) {
+                BufferedImage resized = resampler.resize(image, size[0], size[1]);
+                assertEquals(type, resized.getType(), "Type should be kept");
+                assertEquals(size[0], resized.getWidth());
+                assertEquals(size[1], resized.getHeight());
+                for (int y = 0; y < resized.getHeight(); y += 7) {
+                    for (int x = 0; x < resized.getWidth(); x += 7) {
+                        assertEquals(expected, resized.getRGB(x, y), "Color should be kept for type " + type + " at " + x + "," + y);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void resize_shouldAverageArea() {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                image.getRaster().setSample(x, y, 0, (x + y) % 2 == 0 ? 0 : 200);
+            }
+        }
+        BufferedImage resized = new SeparableResampler(ResamplingFilter.AREA).resize(image, 16, 16);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                assertEquals(100, resized.getRaster().getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    public void resize_shouldReadSubimages() {
+        BufferedImage image = filled(BufferedImage.TYPE_3BYTE_BGR, 200, 200, Color.BLUE);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(100, 100, 100, 100);
+        g.dispose();
+        BufferedImage resized = new SeparableResampler(ResamplingFilter.LANCZOS3).resize(image.getSubimage(100, 100, 100, 100), 25, 25);
+        assertEquals(Color.RED.getRGB(), resized.getRGB(0, 0));
+        assertEquals(Color.RED.getRGB(), resized.getRGB(24, 24));
+    }
+
+    @Test
+    public void resize_shouldNotBleedTransparentPixels() {
+        BufferedImage image = new BufferedImage(40, 40, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.GREEN);
+        g.fillRect(0, 0, 20, 40);
+        g.dispose();
+        BufferedImage resized = new SeparableResampler(ResamplingFilter.BICUBIC).resize(image, 10, 10);
+        int edge = resized.getRGB(5, 5);
+        assertTrue(edge >>> 24 > 0 && edge >>> 24 < 255, "Edge should be partially transparent");
+        assertEquals(0x00FF00, edge & 0xFFFFFF, "Transparent black shouldn't darken the edge");
+    }
+
+    @Test
+    public void resize_shouldConvertCustomTypes() {
+        BufferedImage image = filled(BufferedImage.TYPE_USHORT_565_RGB, 50, 50, Color.WHITE);
+        BufferedImage resized = new SeparableResampler(ResamplingFilter.BICUBIC).resize(image, 20, 20);
+        assertEquals(BufferedImage.TYPE_INT_RGB, resized.getType());
+        assertEquals(Color.WHITE.getRGB(), resized.getRGB(10, 10));
+    }
+
+    @Test
+    public void resize_shouldWriteIntoFittingDestination() {
+        SeparableResampler resampler = new SeparableResampler(ResamplingFilter.LANCZOS3);
+        BufferedImage image = filled(BufferedImage.TYPE_3BYTE_BGR, 120, 80, Color.ORANGE);
+        BufferedImage destination = filled(BufferedImage.TYPE_3BYTE_BGR, 60, 40, Color.BLACK);
+        BufferedImage resized = resampler.resize(image, 60, 40, destination);
+        assertSame(destination, resized, "Fitting destination should be used");
+        assertEquals(Color.ORANGE.getRGB(), resized.getRGB(59, 39));
+
+        BufferedImage gray = new BufferedImage(60, 40, BufferedImage.TYPE_BYTE_GRAY);
+        assertNotSame(gray, resampler.resize(image, 60, 40, gray), "Destination of another type shouldn't be used");
+        assertNotSame(destination, resampler.resize(image, 30, 20, destination), "Destination of another size shouldn't be used");
+    }
+
+    @Test
+    public void java2d_shouldReplaceDestinationContent() {
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage destination = filled(BufferedImage.TYPE_INT_ARGB, 50, 50, Color.RED);
+        BufferedImage resized = new Java2dResampler(RenderingHints.VALUE_INTERPOLATION_BILINEAR).resize(image, 50, 50, destination);
+        assertSame(destination, resized);
+        assertEquals(0, resized.getRGB(25, 25) >>> 24, "Transparent source should replace the previous content");
+    }
+
+    @Test
+    public void weights_shouldBeNormalized() {
+        for (ResamplingFilter filter : ResamplingFilter.values()) {
+            Weights weights = Weights.compute(filter, 1000, 77);
+            for (int i = 0; i < 77; i++) {
+                float sum = 0;
+                for (int k = 0; k < weights.taps; k++) {
+                    sum += weights.weights[i * weights.taps + k];
+                }
+                assertEquals(1f, sum, 1e-4f, filter + " weights of pixel " + i);
+                assertTrue(weights.start[i] >= 0 && weights.start[i] + weights.taps <= 1000);
+            }
+        }
+    }
+}
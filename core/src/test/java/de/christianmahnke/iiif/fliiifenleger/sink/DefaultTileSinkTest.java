@@ -0,0 +1,167 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.sink;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DefaultTileSinkTest {
+
+    @BeforeAll
+    public static void setUpClass() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    private static BufferedImage createImage() {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int noise = random.nextInt(32);
+                image.setRGB(x, y, ((x + noise) & 0xFF) << 16 | ((y + noise) & 0xFF) << 8 | ((x + y) / 2 & 0xFF));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(Map<String, String> options, BufferedImage image) throws Exception {
+        DefaultTileSink sink = new DefaultTileSink();
+        sink.setOptions(options);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sink.saveTile(out, image);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void saveTile_shouldReuseWriter() throws Exception {
+        DefaultTileSink sink = new DefaultTileSink();
+        BufferedImage image = createImage();
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        sink.saveTile(first, image);
+        sink.saveTile(second, image);
+        assertArrayEquals(first.toByteArray(), second.toByteArray(), "Encoding with a reused writer should be stable");
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(first.toByteArray()));
+        assertEquals(256, decoded.getWidth());
+    }
+
+    @Test
+    public void release_shouldDisposeEncodersOfAllThreads() throws Exception {
+        DefaultTileSink sink = new DefaultTileSink();
+        BufferedImage image = createImage();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<?>[] futures = new Future<?>[3];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> {
+                    sink.saveTile(new ByteArrayOutputStream(), image);
+                    // Keep the thread busy, so every task runs on its own thread
+                    Thread.sleep(200);
+                    return null;
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(3, sink.getEncoderCount());
+
+        sink.release();
+        assertEquals(0, sink.getEncoderCount());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sink.saveTile(out, image);
+        assertEquals(256, ImageIO.read(new ByteArrayInputStream(out.toByteArray())).getWidth(), "The sink should be usable after release");
+        assertEquals(1, sink.getEncoderCount());
+
+        sink.setOptions(Map.of("quality", "0.5"));
+        assertEquals(0, sink.getEncoderCount(), "Encoders with old options should be disposed");
+    }
+
+    @Test
+    public void saveTile_shouldFlattenLargeTranslucentImages() throws Exception {
+        DefaultTileSink sink = new DefaultTileSink();
+        int width = 1500;
+        BufferedImage image = new BufferedImage(width, 1000, BufferedImage.TYPE_INT_ARGB);
+        assertTrue((long) image.getWidth() * image.getHeight() > DefaultTileSink.MAX_FLATTENED_PIXELS);
+        image.setRGB(10, 10, 0xFF000000);
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            sink.saveTile(out, image);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(width, decoded.getWidth());
+            assertTrue((decoded.getRGB(500, 500) & 0xFF) > 250, "Transparent pixels should be white");
+        }
+    }
+
+    @Test
+    public void saveTile_shouldApplyJpegQuality() throws Exception {
+        BufferedImage image = createImage();
+        byte[] low = encode(Map.of("quality", "0.3"), image);
+        byte[] high = encode(Map.of("quality", "0.95"), image);
+        assertTrue(low.length < high.length, "Lower quality should give smaller tiles");
+    }
+
+    @Test
+    public void saveTile_shouldWriteProgressiveJpeg() throws Exception {
+        byte[] encoded = encode(Map.of("progressive", "true", "optimizeHuffman", "true"), createImage());
+        boolean progressive = false;
+        for (int i = 0; i < encoded.length - 1; i++) {
+            if ((encoded[i] & 0xFF) == 0xFF && (encoded[i + 1] & 0xFF) == 0xC2) {
+                progressive = true;
+                break;
+            }
+        }
+        assertTrue(progressive, "Progressive JPEG should contain a SOF2 marker");
+        assertNotNull(ImageIO.read(new ByteArrayInputStream(encoded)));
+    }
+
+    @Test
+    public void saveTile_shouldApplyPngCompressionLevel() throws Exception {
+        BufferedImage image = createImage();
+        byte[] stored = encode(Map.of("format", "png", "compressionLevel", "0"), image);
+        byte[] deflated = encode(Map.of("format", "png", "compressionLevel", "9"), image);
+        assertTrue(deflated.length < stored.length, "Higher compression level should give smaller tiles");
+    }
+
+    @Test
+    public void setOptions_shouldRejectInvalidQuality() {
+        assertThrows(IllegalArgumentException.class, () -> new DefaultTileSink().setOptions(Map.of("quality", "2")));
+    }
+
+    @Test
+    public void saveTile_shouldFailForUnknownFormat() {
+        DefaultTileSink sink = new DefaultTileSink();
+        sink.setOptions(Map.of("format", "nope"));
+        assertThrows(TileSinkException.class, () -> sink.saveTile(new ByteArrayOutputStream(), createImage()));
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheImageSourceTest {
+
+    private CountingSource base;
+    private CacheImageSource cache;
+
+    /**
+     * A source filling crops with a gray value, counting the crops.
+     */
+    static class CountingSource extends AbstractImageSource {
+        int crops = 0;
+        int value = 100;
+
+        @Override public String getName() { return "counting"; }
+        @Override public int getWidth() { return 4096; }
+        @Override public int getHeight() { return 4096; }
+        @Override public Map<String, Object> getMetadata() { return Map.of(); }
+
+        @Override
+        public BufferedImage crop(int x, int y, int width, int height, double scale) {
+            return crop(x, y, width, height, scale, null, null);
+        }
+
+        @Override
+        public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) {
+            crops++;
+            int w = (int) Math.ceil(width / scale);
+            int h = (int) Math.ceil(height / scale);
+            BufferedImage image = destination != null && destination.getWidth() == w && destination.getHeight() == h
+                    ? destination : new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+            for (int i = 0; i < w; i++) {
+                for (int j = 0; j < h; j++) {
+                    image.getRaster().setSample(i, j, 0, value);
+                }
+            }
+            return image;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        base = new CountingSource();
+        cache = new CacheImageSource();
+        cache.load(base);
+    }
+
+    @Test
+    void testRepeatedCropsAreCached() throws ImageSourceException {
+        BufferedImage first = cache.crop(0, 0, 512, 512, 1.0);
+        assertSame(first, cache.crop(0, 0, 512, 512, 1.0));
+        assertEquals(1, base.crops);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(512 * 512, cache.getBytes());
+
+        // Other scales and tiers are separate entries
+        cache.crop(0, 0, 512, 512, 2.0);
+        cache.crop(0, 0, 512, 512, 2.0, ScalingTier.FAST, null);
+        assertEquals(3, base.crops);
+        assertEquals(4096, cache.getWidth());
+    }
+
+    @Test
+    void testLeastRecentlyUsedAreEvicted() throws ImageSourceException {
+        cache.setOptions(Map.of("maxBytes", String.valueOf(3 * 100 * 100)));
+        cache.crop(0, 0, 100, 100, 1.0);
+        cache.crop(100, 0, 100, 100, 1.0);
+        cache.crop(200, 0, 100, 100, 1.0);
+        cache.crop(0, 0, 100, 100, 1.0);
+        cache.crop(300, 0, 100, 100, 1.0);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3 * 100 * 100, cache.getBytes());
+
+        int crops = base.crops;
+        cache.crop(0, 0, 100, 100, 1.0);
+        assertEquals(crops, base.crops, "Recently used crop should be kept");
+        cache.crop(100, 0, 100, 100, 1.0);
+        assertEquals(crops + 1, base.crops, "Least recently used crop should be evicted");
+
+        // Crops larger than the limit aren't cached
+        cache.crop(0, 0, 1000, 1000, 1.0);
+        assertEquals(3 * 100 * 100, cache.getBytes());
+    }
+
+    @Test
+    void testDestinationIsNotRetained() throws ImageSourceException {
+        BufferedImage destination = new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_GRAY);
+        assertSame(destination, cache.crop(0, 0, 512, 512, 2.0, null, destination));
+        // The caller reuses its destination for the next tile
+        destination.getRaster().setSample(0, 0, 0, 0);
+
+        BufferedImage cached = cache.crop(0, 0, 512, 512, 2.0, null, destination);
+        assertNotSame(destination, cached);
+        assertEquals(100, cached.getRaster().getSample(0, 0, 0));
+        assertEquals(1, base.crops);
+    }
+
+    @Test
+    void testReleaseClearsCache() throws ImageSourceException {
+        cache.crop(0, 0, 512, 512, 1.0);
+        cache.release();
+        assertEquals(0, cache.getBytes());
+        cache.crop(0, 0, 512, 512, 1.0);
+        assertEquals(2, base.crops);
+    }
+}
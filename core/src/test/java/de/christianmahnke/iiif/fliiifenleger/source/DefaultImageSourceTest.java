@@ -138,6 +138,16 @@ public class DefaultImageSourceTest {
         assertTrue(metadata.containsKey("JPEG"), "Should contain JPEG metadata directory");
     }
 
+    @Test
+    public void getMetadata_shouldBeReadOnce() throws Exception {
+        DefaultImageSource source = new DefaultImageSource();
+        source.load(validImageUrl);
+        Map<String, Object> metadata = source.getMetadata();
+
+        assertSame(metadata, source.getMetadata(), "Metadata should be cached");
+        assertThrows(UnsupportedOperationException.class, () -> metadata.put("key", "value"), "Metadata should be unmodifiable");
+    }
+
     @Test
     public void getMetadata_shouldHandleImagesWithoutMetadata() throws Exception {
         // Create a simple blank image that has no metadata
@@ -155,4 +165,47 @@ public class DefaultImageSourceTest {
         // but we can assert it doesn't contain typical photo metadata like "Exif IFD0"
         assertFalse(metadata.containsKey("Exif IFD0"), "Should not contain EXIF data");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void probe_shouldReadHeaderWithoutDecoding() throws Exception {
+        ImageHeader header = AbstractImageSource.probe(validImageUrl);
+        assertNotNull(header);
+        assertEquals(4615, header.width(), "Width should be correct");
+        assertEquals(3440, header.height(), "Height should be correct");
+        assertEquals(3, header.bands(), "JPEG should have three bands");
+        assertEquals(4615L * 3440 * 3, header.estimateDecodedSize());
+    }
+
+    @Test
+    public void load_shouldDecodeLazilyAndAgainAfterRelease() throws Exception {
+        DefaultImageSource imageSource = new DefaultImageSource();
+        imageSource.load(validImageUrl);
+        assertEquals(3, imageSource.getHeader().bands(), "Header should be available after load");
+        assertEquals(4615, imageSource.getWidth(), "Width should be available without decoding");
+
+        BufferedImage first = imageSource.crop(0, 0, 100, 100, 1.0);
+        assertEquals(100, first.getWidth());
+        imageSource.release();
+        BufferedImage image = imageSource.getImage();
+        assertNotNull(image, "Image should be decoded again after release");
+        assertEquals(4615, image.getWidth());
+    }
+
+    @Test
+    public void load_shouldNormalizeWhenConfigured() throws Exception {
+        DefaultImageSource imageSource = new DefaultImageSource();
+        imageSource.setOptions(Map.of("normalize", "rgb"));
+        imageSource.load(validImageUrl);
+        assertEquals(BufferedImage.TYPE_INT_RGB, imageSource.getImage().getType());
+        assertEquals(BufferedImage.TYPE_INT_RGB, imageSource.crop(0, 0, 100, 100, 2.0).getType());
+    }
+
+    @Test
+    public void setOptions_shouldNormalizeWhenConfiguredAfterLoad() throws Exception {
+        // This is the order used by the CLI: load first, then apply the options
+        DefaultImageSource imageSource = new DefaultImageSource();
+        imageSource.load(validImageUrl);
+        imageSource.setOptions(Map.of("normalize", "rgb"));
+        assertEquals(BufferedImage.TYPE_INT_RGB, imageSource.getImage().getType());
+    }
+}
@@ -27,7 +27,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -109,4 +113,222 @@ public class FilterImageSourceTest {
         Exception exception = assertThrows(IllegalArgumentException.class, filterImageSource::getImage);
         assertTrue(exception.getMessage().contains("Unknown filter type"));
     }
+    @ParameterizedTest
+    @ValueSource(ints = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR})
+    void testPointOperationsMatchPixelCode(int type) {
+        BufferedImage image = randomImage(type, 67, 45);
+        assertMatches(image, PixelKernels.apply(image, PointOperation.invert(), null), rgb -> {
+            return (rgb & 0xFF000000) | (~rgb & 0xFFFFFF);
+        });
+        assertMatches(image, PixelKernels.apply(image, PointOperation.posterize(4), null), rgb -> {
+            int r = ((rgb >> 16) & 0xFF) / 85 * 85;
+            int g = ((rgb >> 8) & 0xFF) / 85 * 85;
+            int b = (rgb & 0xFF) / 85 * 85;
+            return (rgb & 0xFF000000) | (r << 16) | (g << 8) | b;
+        });
+        assertMatches(image, PixelKernels.apply(image, PointOperation.sepia(), null), rgb -> {
+            int r = (rgb >> 16) & 0xFF;
+            int g = (rgb >> 8) & 0xFF;
+            int b = rgb & 0xFF;
+            int newR = Math.min(255, (int) (0.393 * r + 0.769 * g + 0.189 * b));
+            int newG = Math.min(255, (int) (0.349 * r + 0.686 * g + 0.168 * b));
+            int newB = Math.min(255, (int) (0.272 * r + 0.534 * g + 0.131 * b));
+            return (rgb & 0xFF000000) | (newR << 16) | (newG << 8) | newB;
+        });
+    }
+
+    @Test
+    void testGrayscaleAndThreshold() {
+        BufferedImage image = randomImage(BufferedImage.TYPE_3BYTE_BGR, 70, 30);
+        BufferedImage gray = PixelKernels.apply(image, PointOperation.grayscale(), null);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, gray.getType());
+        BufferedImage threshold = PixelKernels.apply(image, PointOperation.threshold(100), null);
+        assertEquals(BufferedImage.TYPE_BYTE_BINARY, threshold.getType());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                double luma = 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+                int value = gray.getRaster().getSample(x, y, 0);
+                assertTrue(Math.abs(luma - value) <= 1, "Gray value at " + x + "," + y);
+                assertEquals(value > 100 ? 1 : 0, threshold.getRaster().getSample(x, y, 0), "Threshold at " + x + "," + y);
+            }
+        }
+        // Gray images stay gray unless an operation adds color
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, PixelKernels.apply(gray, PointOperation.invert(), null).getType());
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, PixelKernels.apply(gray, PointOperation.sepia(), null).getType());
+    }
+
+    @Test
+    void testSubImagesAndDestinations() {
+        BufferedImage image = randomImage(BufferedImage.TYPE_INT_RGB, 100, 100);
+        BufferedImage sub = image.getSubimage(13, 21, 50, 40);
+        int[] before = image.getRGB(0, 0, 100, 100, null, 0, 100);
+        BufferedImage inverted = PixelKernels.apply(sub, PointOperation.invert(), null);
+        assertArrayEquals(before, image.getRGB(0, 0, 100, 100, null, 0, 100), "The input must not be changed");
+        assertMatches(sub, inverted, rgb -> 0xFF000000 | ~rgb);
+
+        BufferedImage destination = new BufferedImage(50, 40, BufferedImage.TYPE_INT_RGB);
+        assertSame(destination, PixelKernels.apply(sub, PointOperation.invert(), destination));
+        assertNotSame(destination, PixelKernels.apply(sub, PointOperation.grayscale(), destination));
+
+        // In place, the destination is the input
+        BufferedImage copy = PixelKernels.apply(sub, PointOperation.posterize(256), null);
+        assertSame(copy, PixelKernels.apply(copy, PointOperation.invert(), copy));
+        assertMatches(sub, copy, rgb -> 0xFF000000 | ~rgb);
+    }
+
+    @Test
+    void testParallelBands() {
+        BufferedImage image = randomImage(BufferedImage.TYPE_4BYTE_ABGR, 1500, 800);
+        assertTrue((long) image.getWidth() * image.getHeight() > PixelKernels.PARALLEL_PIXELS);
+        assertMatches(image, PixelKernels.apply(image, PointOperation.invert(), null), rgb -> (rgb & 0xFF000000) | (~rgb & 0xFFFFFF));
+    }
+
+    @Test
+    void testComposedOperationsMatchSequence() {
+        List<Supplier<PointOperation>> operations = List.of(PointOperation::invert, () -> PointOperation.posterize(3),
+                PointOperation::grayscale, () -> PointOperation.threshold(90), PointOperation::sepia);
+        Random random = new Random(42);
+        for (int type : new int[]{BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            BufferedImage image = randomImage(type, 40, 30);
+            for (int run = 0; run < 50; run++) {
+                BufferedImage expected = image;
+                PointOperation composed = null;
+                int length = 1 + random.nextInt(4);
+                for (int i = 0; i < length; i++) {
+                    PointOperation operation = operations.get(random.nextInt(operations.size())).get();
+                    expected = PixelKernels.apply(expected, operation, null);
+                    composed = composed == null ? operation : composed.andThen(operation);
+                }
+                BufferedImage result = PixelKernels.apply(image, composed, null);
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        assertEquals(pixel(expected, x, y), pixel(result, x, y), "Pixel at " + x + "," + y);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testBoxBlurMatchesAverage() throws ImageSourceException {
+        assertBoxBlurMatchesAverage(randomImage(BufferedImage.TYPE_3BYTE_BGR, 31, 23), 2, 0, 0, 31, 23);
+    }
+
+    @Test
+    void testBoxBlurOfRegionLargerThanItsRows() throws ImageSourceException {
+        // The radius exceeds the height, all rows repeat the edges
+        assertBoxBlurMatchesAverage(randomImage(BufferedImage.TYPE_3BYTE_BGR, 31, 5), 7, 3, 2, 20, 3);
+    }
+
+    private static void assertBoxBlurMatchesAverage(BufferedImage image, int radius, int regionX, int regionY, int regionWidth, int regionHeight) throws ImageSourceException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage blurred = Blur.box(radius).apply(image, regionX, regionY, regionWidth, regionHeight, null);
+        assertEquals(image.getType(), blurred.getType());
+        assertEquals(regionWidth, blurred.getWidth());
+        assertEquals(regionHeight, blurred.getHeight());
+        for (int y = 0; y < regionHeight; y++) {
+            for (int x = 0; x < regionWidth; x++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    // First along rows, then along columns, each rounded
+                    double sum = 0;
+                    for (int dy = -radius; dy <= radius; dy++) {
+                        int row = 0;
+                        for (int dx = -radius; dx <= radius; dx++) {
+                            row += (image.getRGB(clamp(regionX + x + dx, width), clamp(regionY + y + dy, height)) >> shift) & 0xFF;
+                        }
+                        sum += (row + radius) / (2 * radius + 1);
+                    }
+                    int expected = (int) (sum + radius) / (2 * radius + 1);
+                    assertEquals(expected, (blurred.getRGB(x, y) >> shift) & 0xFF, "Pixel at " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testGaussianBlur() throws ImageSourceException {
+        BufferedImage image = new BufferedImage(61, 61, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setSample(30, 30, 0, 255);
+        image.getRaster().setSample(29, 30, 0, 255);
+        image.getRaster().setSample(30, 29, 0, 255);
+        image.getRaster().setSample(29, 29, 0, 255);
+        Blur gaussian = Blur.gaussian(3);
+        BufferedImage blurred = gaussian.apply(image, 0, 0, 61, 61, null);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, blurred.getType());
+        double sum = 0, variance = 0;
+        for (int y = 0; y < 61; y++) {
+            for (int x = 0; x < 61; x++) {
+                int value = blurred.getRaster().getSample(x, y, 0);
+                sum += value;
+                variance += value * (x - 29.5) * (x - 29.5);
+                if (x < 60) {
+                    // Symmetrical around the center
+                    assertEquals(value, blurred.getRaster().getSample(59 - x, y, 0), 1, "Pixel at " + x + "," + y);
+                }
+            }
+        }
+        assertEquals(4 * 255, sum, 4 * 255 * 0.05, "Brightness should be kept");
+        assertEquals(3, Math.sqrt(variance / sum - 0.25), 0.3, "Spread should match sigma");
+        assertTrue(gaussian.getReach() >= 6);
+        assertTrue(Blur.gaussian(0.2).isIdentity());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"blur", "gaussian"})
+    void testBlurredTilesHaveNoSeams(String type) throws ImageSourceException {
+        FilterImageSource filterImageSource = new FilterImageSource();
+        filterImageSource.setOptions(Map.of("type", type, "blurRadius", "9"));
+        filterImageSource.load(sourceImage);
+
+        BufferedImage whole = filterImageSource.crop(0, 100, 400, 200, 1.0);
+        for (int tileX = 0; tileX < 400; tileX += 100) {
+            BufferedImage tile = filterImageSource.crop(tileX, 100, 100, 200, 1.0);
+            for (int y = 0; y < 200; y++) {
+                for (int x = 0; x < 100; x++) {
+                    assertEquals(whole.getRGB(tileX + x, y), tile.getRGB(x, y), "Pixel at " + (tileX + x) + "," + y);
+                }
+            }
+        }
+
+        BufferedImage scaled = filterImageSource.crop(1024, 1024, 1024, 1024, 4.0);
+        assertEquals(256, scaled.getWidth());
+        assertEquals(256, scaled.getHeight());
+    }
+
+    private static int clamp(int value, int length) {
+        return Math.max(0, Math.min(length - 1, value));
+    }
+
+    /**
+     * @return The pixel with the raw value of gray images, {@code getRGB} converts them from linear gray.
+     */
+    private static int pixel(BufferedImage image, int x, int y) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            int v = image.getRaster().getSample(x, y, 0);
+            return 0xFF000000 | v << 16 | v << 8 | v;
+        }
+        return image.getRGB(x, y) | (image.getColorModel().hasAlpha() ? 0 : 0xFF000000);
+    }
+
+    private static BufferedImage randomImage(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static void assertMatches(BufferedImage image, BufferedImage result, IntUnaryOperator expected) {
+        assertEquals(image.getType(), result.getType());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(Integer.toHexString(expected.applyAsInt(image.getRGB(x, y))), Integer.toHexString(result.getRGB(x, y)), "Pixel at " + x + "," + y);
+            }
+        }
+    }
 }
\ No newline at end of file
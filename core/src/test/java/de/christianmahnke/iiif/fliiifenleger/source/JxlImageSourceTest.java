@@ -117,4 +117,24 @@ public class JxlImageSourceTest {
         assertTrue(metadata.containsKey("jxl_decoder"), "Metadata should contain jxl_decoder key");
         assertEquals("imageio-jxl", metadata.get("jxl_decoder"), "Decoder should be imageio-jxl");
     }
+
+    @Test
+    public void setOptions_shouldNormalizeWhenConfiguredAfterLoad() throws ImageSourceException {
+        // This is the order used by the CLI: load first, then apply the options
+        JxlImageSource source = new JxlImageSource();
+        source.load(validJxlUrl);
+        source.setOptions(Map.of("normalize", "rgb"));
+        assertEquals(BufferedImage.TYPE_INT_RGB, source.getImage().getType());
+        assertEquals(BufferedImage.TYPE_INT_RGB, source.crop(0, 0, 10, 10, 2.0).getType());
+    }
+
+    @Test
+    public void release_shouldDecodeAgainOnDemand() throws ImageSourceException {
+        JxlImageSource source = new JxlImageSource();
+        source.load(validJxlUrl);
+        BufferedImage first = source.getImage();
+        source.release();
+        assertEquals(source.getWidth(), first.getWidth());
+        assertNotSame(first, source.getImage());
+    }
 }
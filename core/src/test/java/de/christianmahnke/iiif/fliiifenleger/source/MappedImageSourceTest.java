@@ -0,0 +1,194 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedImageSourceTest {
+
+    private URL validImageUrl;
+
+    @TempDir
+    Path scratchDir;
+
+    @BeforeAll
+    public static void setUpClass() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @BeforeEach
+    public void setUp() throws MalformedURLException {
+        File validImageFile = new File("src/test/resources/images/page011.jpg");
+        assertTrue(validImageFile.exists(), "Test image file must exist");
+        validImageUrl = validImageFile.toURI().toURL();
+    }
+
+    private MappedImageSource createSource() throws ImageSourceException {
+        MappedImageSource source = new MappedImageSource();
+        source.setOptions(Map.of("scratchDir", scratchDir.toString(), "stripHeight", "1000"));
+        source.load(validImageUrl);
+        return source;
+    }
+
+    @Test
+    public void load_shouldReadDimensions() throws Exception {
+        MappedImageSource source = createSource();
+        assertEquals(4615, source.getWidth(), "Width should be correct");
+        assertEquals(3440, source.getHeight(), "Height should be correct");
+        assertEquals(1000, source.getStripHeight());
+    }
+
+    @Test
+    public void crop_shouldMatchFullDecodeAcrossStrips() throws Exception {
+        MappedImageSource source = createSource();
+        DefaultImageSource reference = new DefaultImageSource();
+        reference.load(validImageUrl);
+
+        BufferedImage region = source.crop(1024, 900, 512, 300, 1.0);
+        BufferedImage expected = reference.crop(1024, 900, 512, 300, 1.0);
+        assertEquals(512, region.getWidth());
+        assertEquals(300, region.getHeight());
+        for (int y = 0; y < region.getHeight(); y += 7) {
+            for (int x = 0; x < region.getWidth(); x += 13) {
+                assertEquals(expected.getRGB(x, y), region.getRGB(x, y), "Pixel at " + x + "," + y);
+            }
+        }
+        source.release();
+        try (var files = Files.list(scratchDir)) {
+            assertEquals(0, files.count(), "Scratch file should be deleted on release");
+        }
+    }
+
+    @Test
+    public void crop_shouldConvertImagesDecodedInStrips() throws Exception {
+        // 16 bit samples can't be decoded into the mapping directly
+        BufferedImage image = new BufferedImage(300, 250, BufferedImage.TYPE_USHORT_GRAY);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.getRaster().setSample(x, y, 0, ((x + y) % 256) * 257);
+            }
+        }
+        File file = scratchDir.resolve("gray16.png").toFile();
+        ImageIO.write(image, "png", file);
+
+        MappedImageSource source = new MappedImageSource();
+        source.setOptions(Map.of("scratchDir", scratchDir.toString(), "stripHeight", "64"));
+        source.load(file.toURI().toURL());
+        // Smaller than a strip, so it's copied, across the border of two strips
+        BufferedImage region = source.crop(10, 30, 200, 60, 1.0);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, region.getType());
+        for (int y = 0; y < region.getHeight(); y++) {
+            for (int x = 0; x < region.getWidth(); x++) {
+                assertEquals((x + 10 + y + 30) % 256, region.getRaster().getSample(x, y, 0), "Pixel at " + x + "," + y);
+            }
+        }
+        source.release();
+    }
+
+    @Test
+    public void crop_shouldScale() throws Exception {
+        MappedImageSource source = createSource();
+        BufferedImage scaled = source.crop(0, 0, 4615, 3440, 8.0);
+        assertEquals(577, scaled.getWidth(), "Width should be rounded up");
+        assertEquals(430, scaled.getHeight(), "Height should be rounded up");
+        source.release();
+        assertEquals(100, source.crop(0, 0, 100, 100, 1.0).getWidth(), "Source should be usable after release");
+    }
+
+    @Test
+    public void estimateDecodedSize_shouldCoverStripAndHalfSize() throws Exception {
+        MappedImageSource source = createSource();
+        // The full size is backed by the scratch file, the half size is copied
+        assertEquals(1000L * 4615 * 3 + 2308L * 1720 * 3, source.estimateDecodedSize());
+        BufferedImage half = source.crop(0, 0, 4615, 3440, 2.0);
+        assertEquals(2308L * 1720 * 3, half.getRaster().getDataBuffer().getSize());
+        source.release();
+    }
+
+    @Test
+    public void crop_shouldThrowExceptionForOutOfBounds() throws Exception {
+        MappedImageSource source = createSource();
+        assertThrows(ImageSourceException.class, () -> source.crop(0, 3400, 100, 100, 1.0));
+    }
+
+    @Test
+    public void crop_shouldGenerateSizesOfImagesLargerThanTheHeap() throws Exception {
+        // 6000x4000 pixels take 72 MB decoded, the child JVM gets 48 MB of heap
+        BufferedImage image = new BufferedImage(6000, 4000, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, LargeImage.expected(x, y));
+            }
+        }
+        File file = scratchDir.resolve("large.png").toFile();
+        ImageIO.write(image, "png", file);
+
+        Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx48m", "--enable-native-access=ALL-UNNAMED", "-Djava.awt.headless=true",
+                "-cp", System.getProperty("java.class.path"), LargeImage.class.getName(), file.toString(), scratchDir.toString())
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes());
+        assertEquals(0, process.waitFor(), output);
+    }
+
+    /**
+     * Crops the sizes of an image on a heap smaller than the decoded image and encodes them.
+     */
+    public static class LargeImage {
+        static int expected(int x, int y) {
+            return (x / 8 % 256) << 16 | (y / 8 % 256) << 8 | 128;
+        }
+
+        public static void main(String[] args) throws Exception {
+            MappedImageSource source = new MappedImageSource();
+            source.setOptions(Map.of("scratchDir", args[1]));
+            source.load(new File(args[0]).toURI().toURL());
+            if ((long) source.getWidth() * source.getHeight() * 3 <= Runtime.getRuntime().maxMemory()) {
+                throw new IllegalStateException("The decoded image should be larger than the heap");
+            }
+            for (int scale = 1; scale <= 8; scale *= 2) {
+                BufferedImage size = source.crop(0, 0, source.getWidth(), source.getHeight(), scale);
+                if (size.getWidth() != 6000 / scale || size.getHeight() != 4000 / scale) {
+                    throw new IllegalStateException("Unexpected size " + size.getWidth() + "x" + size.getHeight());
+                }
+                // Blocks of 8x8 pixels have one color, so reducing them keeps it
+                if ((size.getRGB(4000 / scale, 3000 / scale) & 0xffffff) != expected(4000, 3000)) {
+                    throw new IllegalStateException("Unexpected pixel at scale " + scale);
+                }
+                ImageIO.write(size, "jpg", OutputStream.nullOutputStream());
+            }
+            source.release();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import de.christianmahnke.iiif.fliiifenleger.ImageInfo;
+import de.christianmahnke.iiif.fliiifenleger.Tiler;
+import de.christianmahnke.iiif.fliiifenleger.resample.ScalingTier;
+import de.christianmahnke.iiif.fliiifenleger.sink.DefaultTileSink;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MosaicImageSourceTest {
+
+    @TempDir
+    static Path tempDir;
+
+    private static final Color[] COLORS = {Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW};
+
+    @BeforeAll
+    static void setUpClass() throws IOException {
+        if (Tiler.SOURCE_REGISTRY.get("default") == null) {
+            Tiler.SOURCE_REGISTRY.put("default", new DefaultImageSource());
+        }
+        Tiler.SOURCE_REGISTRY.put("counting", new CountingImageSource());
+        for (int i = 0; i < COLORS.length; i++) {
+            BufferedImage sheet = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+            Graphics2D g = sheet.createGraphics();
+            g.setColor(COLORS[i]);
+            g.fillRect(0, 0, 200, 100);
+            g.dispose();
+            ImageIO.write(sheet, "png", tempDir.resolve("sheet-" + i + ".png").toFile());
+        }
+    }
+
+    private MosaicImageSource load(String yaml) throws Exception {
+        Path config = Files.createTempFile(tempDir, "mosaic", ".yaml");
+        Files.writeString(config, yaml);
+        MosaicImageSource mosaic = new MosaicImageSource();
+        mosaic.load(config.toUri().toURL());
+        return mosaic;
+    }
+
+    @Test
+    void testOffsets() throws Exception {
+        MosaicImageSource mosaic = load("""
+                background: "#000000"
+                images:
+                  - path: sheet-0.png
+                  - path: sheet-1.png
+                    x: 250
+                    y: 0
+                  - path: sheet-2.png
+                    x: 0
+                    y: 150
+                """);
+        assertEquals(450, mosaic.getWidth());
+        assertEquals(250, mosaic.getHeight());
+        assertEquals(0, mosaic.getDecodedCount(), "Images should only be decoded for crops");
+
+        BufferedImage crop = mosaic.crop(150, 50, 200, 150, 1.0);
+        assertEquals(200, crop.getWidth());
+        assertEquals(150, crop.getHeight());
+        assertEquals(Color.RED.getRGB(), crop.getRGB(0, 0));
+        assertEquals(Color.BLACK.getRGB(), crop.getRGB(75, 0), "Gaps should be filled with the background");
+        assertEquals(Color.GREEN.getRGB(), crop.getRGB(150, 10));
+        assertEquals(Color.BLUE.getRGB(), crop.getRGB(0, 149));
+        assertEquals(3, mosaic.getDecodedCount());
+
+        BufferedImage scaled = mosaic.crop(0, 0, 450, 250, 2.0);
+        assertEquals(225, scaled.getWidth());
+        assertEquals(125, scaled.getHeight());
+        assertEquals(Color.GREEN.getRGB(), scaled.getRGB(200, 20));
+    }
+
+    @Test
+    void testGridAndCache() throws Exception {
+        MosaicImageSource mosaic = load("""
+                cache: 2
+                grid:
+                  columns: 2
+                  gap: 10
+                images:
+                  - path: sheet-0.png
+                  - path: sheet-1.png
+                  - path: sheet-2.png
+                  - path: sheet-3.png
+                """);
+        assertEquals(410, mosaic.getWidth());
+        assertEquals(210, mosaic.getHeight());
+
+        // Within a single image the crop is passed on
+        BufferedImage crop = mosaic.crop(260, 160, 50, 50, 1.0);
+        assertEquals(Color.YELLOW.getRGB(), crop.getRGB(49, 49));
+        assertEquals(1, mosaic.getDecodedCount());
+
+        BufferedImage whole = mosaic.getImage();
+        assertEquals(Color.WHITE.getRGB(), whole.getRGB(205, 105));
+        assertEquals(Color.BLUE.getRGB(), whole.getRGB(0, 209));
+        assertEquals(2, mosaic.getCapacity());
+        assertEquals(2, mosaic.getDecodedCount(), "No more than cache images should be kept decoded");
+
+        mosaic.release();
+        assertEquals(0, mosaic.getDecodedCount());
+    }
+
+    @Test
+    void testCacheEvictsLeastRecentlyUsed() throws Exception {
+        int count = 7;
+        MosaicImageSource mosaic = load(stacked(count, "cache: 1\n", "default"));
+        assertEquals(1, mosaic.getCapacity());
+        for (int i = 0; i < count; i++) {
+            assertEquals(COLORS[i % COLORS.length].getRGB(), mosaic.crop(0, i * 100, 10, 10, 1.0).getRGB(0, 0));
+        }
+        assertEquals(1, mosaic.getDecodedCount());
+
+        // The images are stacked, a horizontal line crosses only one of them
+        assertEquals(MosaicImageSource.DEFAULT_CACHE, load(stacked(count, "", "default")).getCapacity());
+    }
+
+    @Test
+    void testCacheLimitsConcurrentCrops() throws Exception {
+        MosaicImageSource mosaic = load(stacked(8, "cache: 2\n", "counting"));
+        CountingImageSource.LIVE.set(0);
+        CountingImageSource.MAX_LIVE.set(0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> crops = new ArrayList<>();
+            for (int round = 0; round < 4; round++) {
+                for (int i = 0; i < 8; i++) {
+                    int y = i * 100;
+                    crops.add(executor.submit(() -> mosaic.crop(0, y, 200, 100, 1.0).getRGB(0, 0)));
+                }
+            }
+            for (int i = 0; i < crops.size(); i++) {
+                assertEquals(COLORS[i % 8 % COLORS.length].getRGB(), crops.get(i).get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(CountingImageSource.MAX_LIVE.get() <= 2, "At most cache images should be decoded at once, got " + CountingImageSource.MAX_LIVE.get());
+    }
+
+    @Test
+    void testLargeCropsAreComposedInStrips() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            BufferedImage sheet = new BufferedImage(2100, 1000, BufferedImage.TYPE_3BYTE_BGR);
+            Graphics2D g = sheet.createGraphics();
+            g.setColor(COLORS[i]);
+            g.fillRect(0, 0, 2100, 1000);
+            g.dispose();
+            ImageIO.write(sheet, "png", tempDir.resolve("large-" + i + ".png").toFile());
+        }
+        MosaicImageSource mosaic = load("""
+                images:
+                  - path: large-0.png
+                  - path: large-1.png
+                    x: 2100
+                """);
+        assertTrue(mosaic.estimateDecodedSize() >= 4L * MosaicImageSource.STRIP_PIXELS, "The canvas should be part of the estimate");
+
+        BufferedImage full = mosaic.crop(0, 0, 4200, 1000, 1.0);
+        assertFalse(full.getRaster().getDataBuffer() instanceof DataBufferInt, "The crop should not be held as a whole");
+        assertEquals(Color.RED.getRGB(), full.getRGB(2099, 999));
+        assertEquals(Color.GREEN.getRGB(), full.getRGB(2100, 0));
+        BufferedImage encoded = ImageIO.read(new ByteArrayInputStream(encode(full)));
+        assertEquals(4200, encoded.getWidth());
+        assertEquals(Color.GREEN.getRGB(), encoded.getRGB(4000, 500));
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The description of a mosaic of images stacked on top of each other.
+     */
+    private static String stacked(int count, String options, String type) {
+        StringBuilder yaml = new StringBuilder(options).append("images:\n");
+        for (int i = 0; i < count; i++) {
+            yaml.append("  - path: sheet-").append(i % COLORS.length).append(".png\n    type: ").append(type)
+                    .append("\n    y: ").append(i * 100).append("\n");
+        }
+        return yaml.toString();
+    }
+
+    @Test
+    void testTilingDecodesEachImageOnce() throws Exception {
+        StringBuilder yaml = new StringBuilder("grid:\n  columns: 8\nimages:\n");
+        for (int i = 0; i < 16; i++) {
+            yaml.append("  - path: sheet-").append(i % COLORS.length).append(".png\n    type: counting\n");
+        }
+        MosaicImageSource mosaic = load(yaml.toString());
+        assertEquals(1600, mosaic.getWidth());
+        CountingImageSource.DECODES.set(0);
+
+        // Rows of tiles span all eight columns and cross the border of the two rows of images
+        Tiler tiler = new Tiler();
+        ImageInfo imageInfo = new ImageInfo(mosaic, 64, 64, 3, "http://localhost/iiif/", ImageInfo.IIIFVersion.V2);
+        tiler.createImage(imageInfo, Files.createTempDirectory(tempDir, "tiles"), ImageInfo.IIIFVersion.V2, new DefaultTileSink());
+        assertEquals(16, CountingImageSource.DECODES.get(), "Every image should be decoded once");
+    }
+
+    @Test
+    void testInvalidDescription() {
+        assertThrows(ImageSourceException.class, () -> load("background: \"#000000\"\n"));
+        assertThrows(ImageSourceException.class, () -> load("images:\n  - x: 10\n"));
+    }
+
+    @Test
+    void testOptionsArePassedToImages() throws Exception {
+        MosaicImageSource mosaic = load("""
+                images:
+                  - path: sheet-0.png
+                    options:
+                      normalize: gray
+                """);
+        mosaic.setOptions(Map.of("resampling", "lanczos3"));
+        BufferedImage crop = mosaic.crop(0, 0, 200, 100, 2.0);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, crop.getType());
+    }
+
+    /**
+     * Counts how often images are decoded.
+     */
+    public static class CountingImageSource extends DefaultImageSource {
+        static final AtomicInteger DECODES = new AtomicInteger();
+        static final AtomicInteger LIVE = new AtomicInteger();
+        static final AtomicInteger MAX_LIVE = new AtomicInteger();
+        private boolean decoded = false;
+
+        @Override
+        public BufferedImage crop(int x, int y, int width, int height, double scale, ScalingTier scaling, BufferedImage destination) throws ImageSourceException {
+            synchronized (this) {
+                if (!decoded) {
+                    DECODES.incrementAndGet();
+                    MAX_LIVE.accumulateAndGet(LIVE.incrementAndGet(), Math::max);
+                    decoded = true;
+                }
+            }
+            return super.crop(x, y, width, height, scale, scaling, destination);
+        }
+
+        @Override
+        public synchronized void release() {
+            if (decoded) {
+                LIVE.decrementAndGet();
+            }
+            decoded = false;
+            super.release();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RasterNormalizerTest {
+
+    private static BufferedImage createUShortImage() {
+        ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(8, 4);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 8; x++) {
+                raster.setPixel(x, y, new int[]{0xFFFF, 0x8080, 0});
+            }
+        }
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    @Test
+    public void normalize_shouldConvertCustomTypes() {
+        BufferedImage image = createUShortImage();
+        assertEquals(BufferedImage.TYPE_CUSTOM, image.getType());
+        BufferedImage normalized = new RasterNormalizer(RasterNormalizer.Layout.AUTO, false).normalize(image);
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, normalized.getType());
+        assertEquals(0xFF8000, normalized.getRGB(3, 2) & 0xFFFFFF);
+    }
+
+    @Test
+    public void normalize_shouldKeepCanonicalImages() {
+        BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY);
+        assertSame(image, new RasterNormalizer(RasterNormalizer.Layout.AUTO, false).normalize(image));
+    }
+
+    @Test
+    public void normalize_shouldFlattenAlpha() {
+        BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(1, 1, 0xFF0000FF);
+        BufferedImage normalized = new RasterNormalizer(RasterNormalizer.Layout.RGB, false).normalize(image);
+        assertEquals(BufferedImage.TYPE_INT_RGB, normalized.getType());
+        assertEquals(0xFFFFFF, normalized.getRGB(0, 0) & 0xFFFFFF, "Transparent pixels should become white");
+        assertEquals(0x0000FF, normalized.getRGB(1, 1) & 0xFFFFFF);
+    }
+
+    @Test
+    public void normalize_shouldKeepAlphaIfRequested() {
+        BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_4BYTE_ABGR);
+        image.setRGB(1, 1, 0x800000FF);
+        BufferedImage normalized = new RasterNormalizer(RasterNormalizer.Layout.BGR, true).normalize(image);
+        assertEquals(BufferedImage.TYPE_INT_ARGB, normalized.getType());
+        assertEquals(0x80, normalized.getRGB(1, 1) >>> 24);
+    }
+
+    @Test
+    public void fromOptions_shouldParseLayout() {
+        assertNull(RasterNormalizer.fromOptions(Map.of()));
+        assertNull(RasterNormalizer.fromOptions(Map.of("normalize", "none")));
+        assertNotNull(RasterNormalizer.fromOptions(Map.of("normalize", "gray")));
+        assertThrows(IllegalArgumentException.class, () -> RasterNormalizer.fromOptions(Map.of("normalize", "cmyk")));
+    }
+}
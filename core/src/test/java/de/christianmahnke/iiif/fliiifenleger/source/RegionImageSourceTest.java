@@ -0,0 +1,217 @@
+/**
+ * Fliiifenleger
+ * Copyright (C) 2025  Christian Mahnke
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.christianmahnke.iiif.fliiifenleger.source;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegionImageSourceTest {
+
+    private URL validImageUrl;
+
+    @BeforeAll
+    public static void setUpClass() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @BeforeEach
+    public void setUp() throws MalformedURLException {
+        File validImageFile = new File("src/test/resources/images/page011.jpg");
+        assertTrue(validImageFile.exists(), "Test image file must exist");
+        validImageUrl = validImageFile.toURI().toURL();
+    }
+
+    @Test
+    public void load_shouldReadDimensions() throws Exception {
+        RegionImageSource source = new RegionImageSource();
+        source.load(validImageUrl);
+        assertEquals(4615, source.getWidth(), "Width should be correct");
+        assertEquals(3440, source.getHeight(), "Height should be correct");
+    }
+
+    @Test
+    public void estimateDecodedSize_shouldCoverTheFullSize() throws Exception {
+        RegionImageSource source = new RegionImageSource();
+        source.load(validImageUrl);
+        // No decoded image is kept, but the sizes crop the full image
+        assertEquals(4615L * 3440 * 3, source.estimateDecodedSize());
+        assertEquals(4615L * 3440 * 3, source.crop(0, 0, 4615, 3440, 1.0).getRaster().getDataBuffer().getSize());
+    }
+
+    @Test
+    public void load_shouldThrowExceptionForNonExistentImage() {
+        RegionImageSource source = new RegionImageSource();
+        assertThrows(ImageSourceException.class, () -> source.load(new File("src/test/resources/images/nonexistent.jpg").toURI().toURL()));
+    }
+
+    @Test
+    public void crop_shouldMatchFullDecode() throws Exception {
+        RegionImageSource source = new RegionImageSource();
+        source.load(validImageUrl);
+        DefaultImageSource reference = new DefaultImageSource();
+        reference.load(validImageUrl);
+
+        BufferedImage region = source.crop(1024, 2048, 512, 300, 1.0);
+        BufferedImage expected = reference.crop(1024, 2048, 512, 300, 1.0);
+        assertEquals(512, region.getWidth());
+        assertEquals(300, region.getHeight());
+        for (int y = 0; y < region.getHeight(); y += 17) {
+            for (int x = 0; x < region.getWidth(); x += 13) {
+                assertEquals(expected.getRGB(x, y), region.getRGB(x, y), "Pixel at " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    public void crop_shouldScaleSubsampledRegions() throws Exception {
+        RegionImageSource source = new RegionImageSource();
+        source.load(validImageUrl);
+        BufferedImage scaled = source.crop(0, 0, 4615, 3440, 8.0);
+        assertEquals(577, scaled.getWidth(), "Width should be rounded up");
+        assertEquals(430, scaled.getHeight(), "Height should be rounded up");
+    }
+
+    @Test
+    public void crop_shouldWorkConcurrently() throws Exception {
+        RegionImageSource source = new RegionImageSource();
+        source.load(validImageUrl);
+        List<BufferedImage> tiles = IntStream.range(0, 8).parallel().mapToObj(i -> {
+            try {
+                return source.crop(i * 512, 0, 512, 512, 1.0);
+            } catch (ImageSourceException e) {
+                throw new RuntimeException(e);
+            }
+        }).toList();
+        tiles.forEach(tile -> assertEquals(512, tile.getWidth()));
+        source.release();
+        assertEquals(256, source.crop(0, 0, 512, 512, 2.0).getWidth(), "Source should be usable after release");
+    }
+
+    @Test
+    public void crop_shouldThrowExceptionForOutOfBounds() throws Exception {
+        RegionImageSource source = new RegionImageSource();
+        source.load(validImageUrl);
+        assertThrows(ImageSourceException.class, () -> source.crop(4600, 0, 100, 100, 1.0));
+    }
+
+    @Test
+    public void release_shouldDisposeBorrowedReadersAndCloseStreams() throws Exception {
+        File file = new File(validImageUrl.toURI());
+        List<TrackedStream> streams = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean block = new AtomicBoolean(false);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        // Not a file: URL, so the reader caches a stream
+        URL url = new URL(null, "test:page011.jpg", new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) {
+                return new URLConnection(u) {
+                    @Override
+                    public void connect() {
+                    }
+
+                    @Override
+                    public InputStream getInputStream() throws IOException {
+                        TrackedStream stream = new TrackedStream(Files.newInputStream(file.toPath()), () -> {
+                            if (block.compareAndSet(true, false)) {
+                                reading.countDown();
+                                released.await();
+                            }
+                        });
+                        streams.add(stream);
+                        return stream;
+                    }
+                };
+            }
+        });
+
+        RegionImageSource source = new RegionImageSource();
+        source.load(url);
+        block.set(true);
+        Thread crop = new Thread(() -> {
+            try {
+                source.crop(0, 0, 100, 100, 1.0);
+            } catch (ImageSourceException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        crop.start();
+        reading.await();
+        // The reader is borrowed by the crop while the source is released
+        source.release();
+        released.countDown();
+        crop.join();
+
+        assertFalse(streams.isEmpty());
+        streams.forEach(stream -> assertTrue(stream.closed, "Streams should be closed"));
+    }
+
+    /**
+     * A stream remembering if it's closed, which can hold up reading.
+     */
+    private static class TrackedStream extends FilterInputStream {
+        private final Hold hold;
+        private volatile boolean closed = false;
+
+        TrackedStream(InputStream in, Hold hold) {
+            super(in);
+            this.hold = hold;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                hold.run();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Hold {
+        void run() throws InterruptedException;
+    }
+}
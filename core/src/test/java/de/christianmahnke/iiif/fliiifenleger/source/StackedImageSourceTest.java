@@ -88,6 +88,9 @@ public class StackedImageSourceTest {
         if (Tiler.SOURCE_REGISTRY.get("filter") == null) {
             Tiler.SOURCE_REGISTRY.put("filter", new FilterImageSource());
         }
+        if (Tiler.SOURCE_REGISTRY.get("cache") == null) {
+            Tiler.SOURCE_REGISTRY.put("cache", new CacheImageSource());
+        }
 
         File image1File = new File("src/test/resources/images/page011.jpg"); // 4615x3440
         assertTrue(image1File.exists(), "Test image 1 must exist");
@@ -214,4 +217,83 @@ public class StackedImageSourceTest {
         assertEquals(expected.getWidth(), cropped.getWidth());
         assertEquals(expected.getHeight(), cropped.getHeight());
     }
+
+    @Test
+    public void setOptions_shouldFusePointFilters() throws ImageSourceException {
+        Map<String, String> options = Map.of(
+                "source.0", "default:" + image1Path,
+                "source.1", "filter:type=sepia",
+                "source.2", "filter:type=grayscale",
+                "source.3", "filter:type=posterize,posterizeLevels=4",
+                "source.4", "filter:type=threshold,threshold=100"
+        );
+        stackedSource.setOptions(options);
+
+        FilterImageSource fused = assertInstanceOf(FilterImageSource.class, stackedSource.getFinalSource());
+        assertInstanceOf(DefaultImageSource.class, fused.getBaseSource(), "All filters should be fused into one");
+
+        // The same filters chained one by one
+        ImageSource chain = source1;
+        for (String type : new String[]{"sepia", "grayscale", "posterize", "threshold"}) {
+            FilterImageSource filter = new FilterImageSource();
+            filter.setOptions(Map.of("type", type, "posterizeLevels", "4", "threshold", "100"));
+            filter.load(chain);
+            chain = filter;
+        }
+        BufferedImage expected = chain.crop(1000, 1000, 300, 200, 2.0);
+        BufferedImage cropped = stackedSource.crop(1000, 1000, 300, 200, 2.0);
+        assertEquals(BufferedImage.TYPE_BYTE_BINARY, cropped.getType());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), cropped.getRGB(x, y), "Pixel at " + x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    public void setOptions_shouldNotFuseAcrossBlur() {
+        Map<String, String> options = Map.of(
+                "source.0", "default:" + image1Path,
+                "source.1", "filter:type=grayscale",
+                "source.2", "filter:type=blur",
+                "source.3", "filter:type=invert",
+                "source.4", "filter:type=posterize"
+        );
+        stackedSource.setOptions(options);
+
+        FilterImageSource last = assertInstanceOf(FilterImageSource.class, stackedSource.getFinalSource());
+        FilterImageSource blur = assertInstanceOf(FilterImageSource.class, last.getBaseSource());
+        assertNull(blur.getPointOperation());
+        FilterImageSource first = assertInstanceOf(FilterImageSource.class, blur.getBaseSource());
+        assertInstanceOf(DefaultImageSource.class, first.getBaseSource());
+    }
+
+    @Test
+    public void setOptions_yaml_shouldChainCache() throws IOException, ImageSourceException {
+        String yamlContent = String.format(
+            "sources:\n" +
+            "  - type: default\n" +
+            "    path: %s\n" +
+            "  - type: filter\n" +
+            "    options:\n" +
+            "      type: gaussian\n" +
+            "  - type: cache\n" +
+            "    options:\n" +
+            "      maxBytes: 10000000\n" +
+            "  - type: filter\n" +
+            "    options:\n" +
+            "      type: invert\n",
+            image1Path
+        );
+        Path configFile = tempDir.resolve("config-cache.yaml");
+        Files.write(configFile, yamlContent.getBytes());
+        stackedSource.setOptions(Map.of("config", configFile.toString()));
+
+        FilterImageSource invert = assertInstanceOf(FilterImageSource.class, stackedSource.getFinalSource());
+        CacheImageSource cache = assertInstanceOf(CacheImageSource.class, invert.getBaseSource());
+        stackedSource.crop(0, 0, 512, 512, 2.0);
+        stackedSource.crop(0, 0, 512, 512, 2.0);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
 }